@@ -7,24 +7,32 @@ import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
-import org.refactoringminer.api.GitHistoryRefactoringMiner;
 import org.refactoringminer.api.GitService;
 import org.refactoringminer.api.Refactoring;
-import org.refactoringminer.api.RefactoringHandler;
-import org.refactoringminer.rm1.GitHistoryRefactoringMinerImpl;
 import org.refactoringminer.util.GitServiceImpl;
 import refactoringml.db.*;
+import refactoringml.util.CKCache;
+import refactoringml.util.CKService;
+import refactoringml.util.CommitList;
 import refactoringml.util.Counter;
 import refactoringml.util.Counter.CounterResult;
-import refactoringml.util.JGitUtils;
+import refactoringml.util.GitContext;
+import refactoringml.util.JavaPathFilter;
+import refactoringml.util.MetricRegistry;
+import refactoringml.util.MirrorStore;
+import refactoringml.util.PackCacheConfig;
 import refactoringml.util.RefactoringUtils;
+import refactoringml.util.RenamePolicy;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import static refactoringml.util.FilePathUtils.enforceUnixPaths;
 import static refactoringml.util.FilePathUtils.lastSlashDir;
@@ -36,6 +44,8 @@ import static refactoringml.util.PropertiesUtils.getProperty;
 
 public class App {
 	private static final Logger log = LogManager.getLogger(App.class);
+	//number of commits after which the blob index drops the commits, that are not needed anymore
+	private static final int BLOB_INDEX_RETAIN_INTERVAL = 100;
 	private String currentTempDir;
 
 	//url of the project to analyze
@@ -48,18 +58,47 @@ public class App {
 	private String firstCommitToProcess;
 	//the last commit to process on the selected branch
 	private String lastCommitToProcess;
+	//the part of the history to mine, null to mine the whole history
+	private Shard shard;
+	//replay the process metrics of all commits before the first commit to process, instead of skipping them
+	//RefactoringMiner and CK run for them as well, so that the refactorings reset the trackers like in a run over the whole history
+	private boolean warmUp = false;
+	//the shard does not contain any commit, thus nothing is mined
+	private boolean emptyRange = false;
+	//number of commits that only updated the process metrics, without persisting anything
+	private int warmUpCommits = 0;
+	//number of commits added to the blob index
+	private int indexedCommits = 0;
+	//only mine commits changing java files, all other commits can not contain refactorings or change process metrics
+	private boolean skipNonJavaCommits;
+	//number of commits skipped, because they do not change any java file
+	private int nonJavaCommits = 0;
 	//Do you want to save the affected source code for each commit?
 	private boolean storeFullSourceCode;
 	//name of the dataset
 	private String datasetName;
 	//number of unhandled exceptions encountered during runtime, @WARN quite unreliable
-	private int exceptionsCount = 0;
+	private AtomicInteger exceptionsCount = new AtomicInteger(0);
+	//entities inserted by the persistence stage and the time their transactions took in milliseconds
+	private AtomicLong persistedEntities = new AtomicLong(0);
+	private AtomicLong persistenceTime = new AtomicLong(0);
 	//timeout in seconds for the refactoring miner
 	private int refactoringMinerTimeout;
-	//current commitId processed by the RefactoringMiner
-	private String commitIdToProcess;
-	//all by RefactoringMiner detected refactorings for the current commit
-	private List<Refactoring> refactoringsToProcess;
+	//processes the commits of the current project in stages
+	private CommitPipeline pipeline;
+	//persists the entities of the mined commits behind the pipeline
+	private CommitWriter writer;
+	//journals the entities of the mined commits before they are persisted, instead of the writer, if a journal path is configured
+	private CommitSpool spool;
+	private String journalPath;
+	//CK results of the file versions analyzed in this project
+	private CKCache ckCache;
+	//CK runs of this project, the CKService itself is shared with the other projects of this JVM
+	private CKService.Usage ckUsage;
+	//class and method metrics persisted in this project, reused by all instances of the same class or method version
+	private MetricRegistry metricRegistry;
+	//number of commits RefactoringMiner analyzes at once
+	private int refactoringMinerWorkers;
 	//the git repository is cloned to this path, to analyze it there
 	private String clonePath;
 	//main branch of the current repository, this one will be analyzed
@@ -68,13 +107,29 @@ public class App {
 	private Project project;
 	//JGit repository object for the current run
 	private Repository repository;
+	//JGit objects to read the current repository, shared by all stages
+	private GitContext gitContext;
+	//ids of all commits of the mined history, oldest first
+	private CommitList commitList;
+	//only follow the first parents of the head, instead of mining all reachable commits
+	private boolean firstParentOnly;
+	//clone the repository without a working tree, everything is read from the object database
+	private boolean bareClone;
+	//write the mined entities with multi-row inserts instead of persisting them with Hibernate
+	private boolean bulkLoad;
+	//persistent mirrors of the repositories, null if every run clones the repository from its url
+	private MirrorStore mirrorStore;
+	//sizes of the JGit pack caches for the current repository
+	private PackCacheConfig packCacheConfig;
+	//the repository of this run is a local clone of a mirror, which is in use until the run finished
+	private boolean clonedFromMirror = false;
 
 	public App (String datasetName,
 				String gitUrl,
 				String filesStoragePath,
 				Database db,
 				boolean storeFullSourceCode) {
-		this(datasetName, gitUrl, filesStoragePath, db, null, storeFullSourceCode);
+		this(datasetName, gitUrl, filesStoragePath, db, null, null, storeFullSourceCode);
 	}
 
 	public App (String datasetName,
@@ -86,6 +141,18 @@ public class App {
 		this(datasetName, gitUrl, filesStoragePath, db, null, lastCommitToProcess, storeFullSourceCode);
 	}
 
+	//Mine only the given part of the history, the commits before it are used to warm up the process metrics
+	public App (String datasetName,
+				String gitUrl,
+				String filesStoragePath,
+				Database db,
+				Shard shard,
+				boolean storeFullSourceCode) {
+		this(datasetName, gitUrl, filesStoragePath, db, null, null, storeFullSourceCode);
+		this.shard = shard;
+		this.warmUp = shard != null;
+	}
+
 	public App (String datasetName,
 				String gitUrl,
 				String filesStoragePath,
@@ -106,12 +173,19 @@ public class App {
 		currentTempDir = createTmpDir();
 		clonePath = (Project.isLocal(gitUrl) ? gitUrl : currentTempDir + "repo").trim();
 		this.refactoringMinerTimeout = Integer.parseInt(getProperty("timeoutRefactoringMiner"));
+		this.refactoringMinerWorkers = Integer.parseInt(getProperty("refactoringMinerWorkers"));
+		this.skipNonJavaCommits = Boolean.parseBoolean(getProperty("skipNonJavaCommits"));
+		this.firstParentOnly = Boolean.parseBoolean(getProperty("firstParentOnly"));
+		this.bareClone = Boolean.parseBoolean(getProperty("bareClone"));
+		this.bulkLoad = Boolean.parseBoolean(getProperty("bulkLoad"));
+		this.journalPath = getProperty("journalPath");
+		this.mirrorStore = Project.isLocal(gitUrl) ? null : MirrorStore.getInstance();
 	}
 
 	public Project run () throws Exception {
 		// do not run if the project is already in the database
-		if (db.projectExists(gitUrl)) {
-			String message = String.format("Project %s already in the database", gitUrl);
+		if (shard == null ? db.projectExists(gitUrl) : db.projectExists(gitUrl, shard.getIndex(), shard.getCount())) {
+			String message = String.format("Project %s already in the database", gitUrl) + (shard == null ? "" : " for " + shard);
 			throw new IllegalArgumentException(message);
 		}
 
@@ -121,69 +195,149 @@ public class App {
 			newDir(filesStoragePath);
 		}
 
+		Git git = null;
 		try {
-			Git git = initGitRepository();
+			git = initGitRepository();
+			// every RefactoringMiner worker reads with its own ObjectReader, next to the readers of the diff and ck stages
+			packCacheConfig = PackCacheConfig.forRepository(repository, Runtime.getRuntime().maxMemory(), Integer.parseInt(getProperty("packCacheHeapShare")), refactoringMinerWorkers + 2);
+			packCacheConfig.install();
+			RenamePolicy renamePolicy = new RenamePolicy(Integer.parseInt(getProperty("renameLimit")), Long.parseLong(getProperty("renameMaxCandidateSize")) * 1024 * 1024);
+			JavaPathFilter pathFilter = JavaPathFilter.fromGlobs(getProperty("diffIncludePaths"), getProperty("diffExcludePaths"));
+			gitContext = new GitContext(repository, Long.parseLong(getProperty("blobCacheSize")) * 1024 * 1024, renamePolicy, pathFilter);
+			String head = shard != null && shard.getHeadCommit() != null ? shard.getHeadCommit() : mainBranch;
+			// enumerate all commits once, the list is used to count, split and mine them
+			commitList = CommitList.load(repository, head, firstParentOnly);
 			project = initProject(git);
+			if (shard != null) {
+				project.setShard(shard.getIndex(), shard.getCount());
+				selectShardRange();
+			}
 			log.debug("Created project for analysis: " + project.toString());
-			db.persistComplete(project);
+			storeProject(false);
 
 			//get all necessary objects to analyze the commits
-			GitHistoryRefactoringMiner miner = new GitHistoryRefactoringMinerImpl();
-			RefactoringHandler handler = getRefactoringHandler(git);
+			RefactoringDetector detector = new RefactoringDetector(repository, refactoringMinerTimeout, getRefactoringExceptionHandler(git));
 			PMDatabase pmDatabase = new PMDatabase();
-			final RefactoringAnalyzer refactoringAnalyzer = new RefactoringAnalyzer(project, db, repository, pmDatabase, filesStoragePath, storeFullSourceCode);
-			final ProcessMetricsCollector processMetrics = new ProcessMetricsCollector(project, db, repository, pmDatabase, filesStoragePath);
+			CKService ckService = CKService.getInstance();
+			ckUsage = new CKService.Usage();
+			ckCache = new CKCache(Integer.parseInt(getProperty("ckCacheSize")));
+			metricRegistry = new MetricRegistry(Integer.parseInt(getProperty("metricRegistrySize")));
+			final RefactoringAnalyzer refactoringAnalyzer = new RefactoringAnalyzer(project, gitContext, pmDatabase, ckService, ckUsage, ckCache, metricRegistry, filesStoragePath, storeFullSourceCode);
+			final ProcessMetricsCollector processMetrics = new ProcessMetricsCollector(project, gitContext, pmDatabase, ckService, ckUsage, ckCache, metricRegistry, filesStoragePath);
 
 			// get all commits in the repo, and to each commit with a refactoring, extract the metrics
-			RevWalk walk = JGitUtils.getReverseWalk(repository, mainBranch);
-			RevCommit currentCommit = walk.next();
+			CommitList.Cursor commits = commitList.cursor(repository, 0);
 			log.info("Start mining project " + gitUrl + "(clone at " + clonePath + ")");
 
-			boolean firstCommitFound = firstCommitToProcess == null;
-			// we only analyze commits that have one parent or the first commit with 0 parents
-			for (boolean endFound = false; currentCommit!=null && !endFound; currentCommit = walk.next()) {
-				String commitHash = currentCommit.getId().getName();
-
-				//only start the analysis once the firstCommitHash was found
-				firstCommitFound = firstCommitFound || commitHash.equals(firstCommitToProcess);
-				if(!firstCommitFound)
-					continue;
-
-				// did we find the last commit to process?
-				// if so, process it and then stop
-				if (commitHash.equals(lastCommitToProcess))
-					endFound = true;
-
-				// i.e., ignore merge commits
-				if (currentCommit.getParentCount() > 1)
-					continue;
-
-				processCommit(currentCommit, miner, handler, refactoringAnalyzer, processMetrics);
+			int writeBehindMaxEntities = Integer.parseInt(getProperty("writeBehindMaxEntities"));
+			if (isJournaled())
+				spool = CommitSpool.forProject(new File(journalPath.trim()), extractProjectNameFromGitUrl(gitUrl), project.getId(), db, bulkLoad, writeBehindMaxEntities);
+			else
+				writer = new CommitWriter(extractProjectNameFromGitUrl(gitUrl), writeBehindMaxEntities, this::writeBatch);
+			pipeline = new CommitPipeline(extractProjectNameFromGitUrl(gitUrl), Integer.parseInt(getProperty("pipelineQueueSize")))
+					.addStage("diff", this::calculateDiff)
+					.addParallelStage("refactoringminer", refactoringMinerWorkers, minedCommit -> detectRefactorings(minedCommit, detector))
+					.addStage("ck", minedCommit -> collectCommitData(minedCommit, refactoringAnalyzer, processMetrics, pmDatabase))
+					.addStage("persistence", this::persistCommit, false);
+			Exception failure = null;
+			try {
+				pipeline.run(commitSource(commits));
+			} catch (Exception e) {
+				failure = e;
+				throw e;
+			} finally {
+				commits.close();
+				detector.close();
+				// the project is only complete once all mined commits are in the database
+				// a failed close does not hide the failure of the pipeline, it is added to it
+				try {
+					if (spool != null)
+						spool.close();
+					else
+						writer.close();
+				} catch (Exception e) {
+					if (failure == null)
+						throw e;
+					failure.addSuppressed(e);
+				}
 			}
-			walk.close();
 
 			// set finished data
 			// note that if this process crashes, finished date will be equals to null in the database
 			project.setFinishedDate(Calendar.getInstance());
-			project.setExceptions(exceptionsCount);
-			db.updateComplete(project);
+			project.setExceptions(exceptionsCount.get() + (spool != null ? (int) spool.getFailedCommits() : 0));
+			project.setRenameEscapeHatches((int) gitContext.getRenameEscapeHatches());
+			storeProject(true);
 
 			logProjectStatistics(startProjectTime);
 			return project;
 		} finally {
+			// release the repositories, other projects might still be mined in this JVM
+			if (gitContext != null)
+				gitContext.close();
+			if (git != null)
+				git.close();
+			if (repository != null)
+				repository.close();
+			if (packCacheConfig != null)
+				packCacheConfig.release();
+			if (clonedFromMirror)
+				mirrorStore.release(gitUrl);
 			// delete the tmp dir that stores the project
 			FileUtils.deleteDirectory(new File(currentTempDir));
 		}
 	}
 
+	//Are the mined commits appended to a journal, instead of being written to the database right away
+	private boolean isJournaled() { return journalPath != null && !journalPath.trim().isEmpty(); }
+
+	//Insert or update the project in the database
+	//With a journal, the run does not fail while the database is not available, the project is stored with the same retries as the journaled commits
+	private void storeProject(boolean update) throws Exception {
+		if (!isJournaled()) {
+			if (update)
+				db.updateComplete(project);
+			else
+				db.persistComplete(project);
+			return;
+		}
+
+		CommitSpool.retryWhileUnavailable((update ? "updating" : "storing") + " the project " + gitUrl, () -> {
+			try {
+				if (update)
+					db.updateComplete(project);
+				else
+					db.persistComplete(project);
+			} catch (RuntimeException e) {
+				// the next attempt inserts the project again
+				if (!update)
+					project.resetId();
+				throw e;
+			}
+			return null;
+		});
+	}
+
 	private boolean isFirst(RevCommit commit) {return commit.getParentCount() == 0;}
 
 	//Initialize the git repository for this run, by downloading it
 	//Returns the jgit repository object and the git object
+	//In a bare clone no working tree is checked out, as all files are read from the object database
+	//With a mirror store, the repository is cloned from the local mirror, which only fetches the new commits
 	private Git initGitRepository() throws Exception {
-		GitService gitService = new GitServiceImpl();
-		repository = gitService.cloneIfNotExists(clonePath, gitUrl);
-		final Git git = Git.open(new File(lastSlashDir(clonePath) + ".git"));
+		final Git git;
+		if (mirrorStore != null) {
+			repository = mirrorStore.cloneFromMirror(gitUrl, new File(clonePath), bareClone);
+			clonedFromMirror = true;
+			git = Git.wrap(repository);
+		} else if (bareClone) {
+			repository = cloneBareIfNotExists(clonePath, gitUrl);
+			git = Git.wrap(repository);
+		} else {
+			GitService gitService = new GitServiceImpl();
+			repository = gitService.cloneIfNotExists(clonePath, gitUrl);
+			git = Git.open(new File(lastSlashDir(clonePath) + ".git"));
+		}
 
 		// identifies the main branch of that repo
 		mainBranch = discoverMainBranch(git);
@@ -191,77 +345,185 @@ public class App {
 	}
 
 	//Initialize the project object for this run
-	private Project initProject(Git git) throws GitAPIException, IOException {
-		CounterResult counterResult = Counter.countProductionAndTestFiles(clonePath);
-		createDiffFormatter(repository);
-		long projectSize = -1;
-		try{
-			projectSize = FileUtils.sizeOfDirectory(new File(clonePath));
-		} catch (IllegalArgumentException e){
-			log.info("For project: " + gitUrl + " the project size could not be determined.", e);
-		}
-		int numberOfCommits = numberOfCommits(git);
+	//Without a working tree, the files are counted in the tree of the head
+	//The project size is always the size of a checkout of the head, so it is the same for bare and non-bare clones
+	private Project initProject(Git git) throws IOException {
+		CounterResult counterResult = bareClone ?
+				Counter.countProductionAndTestFiles(repository, Constants.HEAD) :
+				Counter.countProductionAndTestFiles(clonePath);
+		long projectSize = Counter.sizeOfTree(repository, Constants.HEAD);
+		int numberOfCommits = commitList.size();
 		String lastCommitHash = getHead(git);
 		String projectName = extractProjectNameFromGitUrl(gitUrl);
 		return new Project(datasetName, gitUrl, projectName, Calendar.getInstance(),
 				numberOfCommits, getProperty("stableCommitThresholds"), lastCommitHash, counterResult, projectSize);
 	}
 
-	private void processCommit(RevCommit currentCommit, GitHistoryRefactoringMiner miner, RefactoringHandler handler, RefactoringAnalyzer refactoringAnalyzer, ProcessMetricsCollector processMetrics){
-		long startCommitTime = System.currentTimeMillis();
-		String commitHash = currentCommit.getId().getName();
-		try{
-			db.openSession();
-
-			refactoringsToProcess = null;
-			commitIdToProcess = null;
-
-			//stores all the ck metrics for the current commit
-			List<RefactoringCommit> allRefactoringCommits = new ArrayList<>();
-			// stores the commit meta data
-			CommitMetaData superCommitMetaData = new CommitMetaData(currentCommit, project);
-			List<DiffEntry> entries = calculateDiffEntries(currentCommit);
-			// Note that we only run it if the commit has a parent, i.e, skip the first commit of the repo
-			if (!isFirst(currentCommit)){
-				long startTimeRMiner = System.currentTimeMillis();
-				miner.detectAtCommit(repository, commitHash, handler, refactoringMinerTimeout);
-				log.debug("Refactoring miner took " + (System.currentTimeMillis() - startTimeRMiner) + " milliseconds to mine the commit: " + commitHash);
-
-				// if timeout has happened, refactoringsToProcess and commitIdToProcess will be null
-				boolean thereIsRefactoringToProcess = refactoringsToProcess != null && commitIdToProcess != null;
-				if(thereIsRefactoringToProcess)
-					//remove all not studied refactorings from the list
-					refactoringsToProcess = refactoringsToProcess.stream().filter(RefactoringUtils::isStudied).collect(Collectors.toList());
-
-				//check if refactoring miner detected a refactoring we study
-				if (thereIsRefactoringToProcess && !refactoringsToProcess.isEmpty()) {
-					allRefactoringCommits = refactoringAnalyzer.collectCommitData(currentCommit, superCommitMetaData, refactoringsToProcess, entries);
-				} else if (thereIsRefactoringToProcess) {
-					// timeout happened, so count it as an exception
-					log.debug("Refactoring Miner did not find any refactorings for commit: " + commitHash + createErrorState(commitHash, project));
-				} else {
-					// timeout happened, so count it as an exception
-					log.error("Refactoring Miner timed out for commit: " + commitHash + createErrorState(commitHash, project));
-					exceptionsCount++;
+	//Split the commits to process between the shards and select the range of this shard
+	//All shards see the same commits, as they enumerate the history from the same head commit
+	private void selectShardRange() {
+		// merge commits are not processed, see commitSource
+		List<String> commits = commitList.nonMergeCommits();
+		ImmutablePair<String, String> range = shard.selectRange(commits);
+		if (range == null) {
+			emptyRange = true;
+			log.info(shard + " of project " + gitUrl + " does not contain any of the " + commits.size() + " commits.");
+			return;
+		}
+		firstCommitToProcess = range.left;
+		lastCommitToProcess = range.right;
+		log.info(shard + " of project " + gitUrl + " mines the commits " + firstCommitToProcess + " to " + lastCommitToProcess + " out of " + commits.size() + " commits.");
+	}
+
+	//Iterates over the commits of the cursor, that are in the range of commits to process
+	//The commits before the range are skipped, or only update the process metrics in case of a warm up
+	//we only analyze commits that have one parent or the first commit with 0 parents
+	//commits without any java change are skipped before they enter the pipeline, if skipNonJavaCommits is enabled
+	private Callable<MinedCommit> commitSource(CommitList.Cursor commits) {
+		return new Callable<>() {
+			private boolean firstCommitFound = firstCommitToProcess == null;
+			private boolean endFound = emptyRange;
+
+			@Override
+			public MinedCommit call() throws Exception {
+				for (RevCommit currentCommit = commits.next(); currentCommit != null && !endFound; currentCommit = commits.next()) {
+					String commitHash = currentCommit.getId().getName();
+
+					//only start the analysis once the firstCommitHash was found
+					firstCommitFound = firstCommitFound || commitHash.equals(firstCommitToProcess);
+					if (!firstCommitFound && !warmUp)
+						continue;
+
+					// did we find the last commit to process?
+					// if so, process it and then stop
+					if (commitHash.equals(lastCommitToProcess))
+						endFound = true;
+
+					// i.e., ignore merge commits
+					if (currentCommit.getParentCount() > 1)
+						continue;
+
+					// RefactoringMiner finds nothing and no process metric changes, if no java file changed
+					if (skipNonJavaCommits && !gitContext.touchesJavaFiles(currentCommit)) {
+						nonJavaCommits++;
+						continue;
+					}
+
+					if (!firstCommitFound)
+						warmUpCommits++;
+					return new MinedCommit(currentCommit, !firstCommitFound);
 				}
+				return null;
 			}
+		};
+	}
+
+	//Stage 1: calculate the diff between the commit and its parent, as well as the changed lines of all java files
+	private void calculateDiff(MinedCommit minedCommit) throws IOException {
+		// stores the commit meta data
+		minedCommit.setSuperCommitMetaData(new CommitMetaData(minedCommit.getCommit(), project));
+		minedCommit.setDiff(gitContext.calculateDiff(minedCommit.getCommit()));
+	}
 
-			//collect the process metrics for the current commit
-			Set<ImmutablePair<String, String>> refactoringRenames = getRefactoringMinerRenames(refactoringsToProcess);
-			Set<ImmutablePair<String, String>> jGitRenames = getJGitRenames(entries);
-			processMetrics.collectMetrics(currentCommit, superCommitMetaData, allRefactoringCommits, entries, refactoringRenames, jGitRenames);
+	//Stage 2: detect all refactorings with RefactoringMiner, this stage runs for multiple commits at once
+	// Note that we only run it if the commit has a parent, i.e, skip the first commit of the repo
+	// It also runs for warm up commits, as their refactorings and renames update the process metrics
+	private void detectRefactorings(MinedCommit minedCommit, RefactoringDetector detector) {
+		if (isFirst(minedCommit.getCommit()))
+			return;
+
+		String commitHash = minedCommit.getCommitHash();
+		long startTimeRMiner = System.currentTimeMillis();
+		List<Refactoring> refactorings = detector.detect(commitHash);
+		log.debug("Refactoring miner took " + (System.currentTimeMillis() - startTimeRMiner) + " milliseconds to mine the commit: " + commitHash);
+
+		// if timeout has happened, refactorings will be null
+		if (refactorings != null) {
+			//remove all not studied refactorings from the list
+			minedCommit.setRefactorings(refactorings.stream().filter(RefactoringUtils::isStudied).collect(Collectors.toList()));
+			if (minedCommit.getRefactorings().isEmpty())
+				log.debug("Refactoring Miner did not find any refactorings for commit: " + commitHash + createErrorState(commitHash, project));
+		} else {
+			// timeout happened, so count it as an exception
+			log.error("Refactoring Miner timed out for commit: " + commitHash + createErrorState(commitHash, project));
+			exceptionsCount.incrementAndGet();
+		}
+	}
+
+	//Stage 3: extract the CK metrics of all refactorings and update the process metrics
+	//This stage must see the commits in order, because it updates the PMDatabase
+	//A warm up commit updates the PMDatabase exactly like any other commit, but its refactoring instances are discarded and no stable instances are collected
+	private void collectCommitData(MinedCommit minedCommit, RefactoringAnalyzer refactoringAnalyzer, ProcessMetricsCollector processMetrics, PMDatabase pmDatabase) throws IOException {
+		// the files of the previous commit and of all commits, that are the base of a tracker, are looked up in the blob index
+		if (++indexedCommits % BLOB_INDEX_RETAIN_INTERVAL == 0)
+			gitContext.retainIndexedCommits(pmDatabase.baseCommitIds());
+		gitContext.indexCommit(minedCommit.getCommit(), minedCommit.getDiff().getEntries());
+
+		// the refactoring instances decide which trackers are reset, thus they are built in a batch, that is never persisted
+		CommitBatch batch = minedCommit.isWarmUp() ? new CommitBatch() : minedCommit.getBatch();
+
+		//stores all the ck metrics for the current commit
+		List<RefactoringCommit> allRefactoringCommits = new ArrayList<>();
+		List<Refactoring> refactorings = minedCommit.getRefactorings();
+		//check if refactoring miner detected a refactoring we study
+		if (refactorings != null && !refactorings.isEmpty())
+			allRefactoringCommits = refactoringAnalyzer.collectCommitData(minedCommit.getCommit(), minedCommit.getSuperCommitMetaData(), refactorings, minedCommit.getDiff().getEntries(), batch);
+
+		//collect the process metrics for the current commit
+		Set<ImmutablePair<String, String>> refactoringRenames = getRefactoringMinerRenames(refactorings);
+		processMetrics.collectMetrics(minedCommit.getCommit(), minedCommit.getSuperCommitMetaData(), allRefactoringCommits, minedCommit.getDiff(),
+				refactoringRenames, minedCommit.isWarmUp() ? null : batch);
+	}
+
+	//Stage 4: hand all collected entities of the commit over to the writer or the journal, they are persisted in a single transaction
+	private void persistCommit(MinedCommit minedCommit) throws InterruptedException {
+		String commitHash = minedCommit.getCommitHash();
+		if (minedCommit.hasFailed()) {
+			exceptionsCount.incrementAndGet();
+			log.error("Unhandled exception when collecting commit data for commit: " + commitHash + " in stage " + minedCommit.getFailedStage() + createErrorState(commitHash, project), minedCommit.getFailure());
+		} else if (!minedCommit.getBatch().isEmpty()) {
+			if (spool != null)
+				appendToJournal(commitHash, minedCommit.getBatch());
+			else
+				writer.submit(commitHash, minedCommit.getBatch());
+		}
+
+		long elapsedCommitTime = System.currentTimeMillis() - minedCommit.getStartTime();
+		log.debug("Processing commit " + commitHash + " took " + elapsedCommitTime + " milliseconds.");
+	}
+
+	private void appendToJournal(String commitHash, CommitBatch batch) {
+		try {
+			spool.append(commitHash, batch);
+		} catch (IOException e) {
+			exceptionsCount.incrementAndGet();
+			log.error("Unhandled exception when appending commit data for commit: " + commitHash + " to the journal" + createErrorState(commitHash, project), e);
+		}
+	}
+
+	//Persist the entities of the commit in a single transaction, runs on the thread of the writer
+	private void writeBatch(String commitHash, CommitBatch batch) {
+		BatchWork work = null;
+		try {
+			work = bulkLoad ? db.beginBulkWork() : db.beginWork();
 			long startTimeTransaction = System.currentTimeMillis();
-			db.commit();
-			log.debug("Committing the transaction for commit " + commitHash + " took " + (System.currentTimeMillis() - startTimeTransaction) + " milliseconds.");
+			work.persist(batch);
+			int entities = work.getEntityCount();
+			work.commit();
+			long transactionTime = System.currentTimeMillis() - startTimeTransaction;
+			persistedEntities.addAndGet(entities);
+			persistenceTime.addAndGet(transactionTime);
+			log.debug("Committing the transaction for commit " + commitHash + " with " + entities + " entities took " + transactionTime + " milliseconds.");
+			batch.getAfterPersistActions().forEach(Runnable::run);
 		} catch (Exception e) {
-			exceptionsCount++;
-			log.error("Unhandled exception when collecting commit data for commit: " + commitHash + createErrorState(commitHash, project), e);
-			db.rollback(createErrorState(commitHash, project));
+			exceptionsCount.incrementAndGet();
+			log.error("Unhandled exception when persisting commit data for commit: " + commitHash + createErrorState(commitHash, project), e);
+			if (work != null)
+				work.rollback(createErrorState(commitHash, project));
 		} finally {
-			db.close();
+			if (work != null)
+				work.close();
 		}
-		long elapsedCommitTime = System.currentTimeMillis() - startCommitTime;
-		log.debug("Processing commit " + commitHash + " took " + elapsedCommitTime + " milliseconds.");
 	}
 
 	//Log the project statistics after the run
@@ -276,32 +538,46 @@ public class App {
 			stableInstancesCount = db.findAllStableCommits(project.getId(), level);
 			statistics.append("\n\t\tFound ").append(stableInstancesCount).append(" stable instances in the project with threshold: ").append(level);
 		}
+		if (warmUp)
+			statistics.append("\nReplayed the process metrics of ").append(warmUpCommits).append(" commits before the range of the ").append(shard);
+		if (skipNonJavaCommits)
+			statistics.append("\nSkipped ").append(nonJavaCommits).append(" commits without any java change.");
+		statistics.append("\n").append(pipeline.statistics());
+		if (spool != null) {
+			statistics.append("\n").append(spool.statistics());
+		} else {
+			statistics.append("\n").append(writer.statistics());
+			double persistenceSeconds = persistenceTime.get() / 1000.0;
+			statistics.append(String.format("\nPersisted %d entities in %.2f seconds of transactions, %.0f entities per second", persistedEntities.get(),
+					persistenceSeconds, persistenceSeconds == 0 ? 0 : persistedEntities.get() / persistenceSeconds));
+		}
+		statistics.append("\n").append(ckUsage.statistics());
+		statistics.append("\n").append(ckCache.statistics());
+		statistics.append("\n").append(metricRegistry.statistics());
+		statistics.append("\n").append(gitContext.statistics());
+		statistics.append("\n").append(packCacheConfig.statistics());
+		if (mirrorStore != null)
+			statistics.append("\n").append(mirrorStore.statistics());
 		statistics.append("\n").append(project.toString());
 		log.info(statistics);
 	}
 
-	private RefactoringHandler getRefactoringHandler(Git git) {
-		return new RefactoringHandler() {
-			@Override
-			public void handle(String commitId, List<Refactoring> refactorings) {
-				commitIdToProcess = commitId;
-				refactoringsToProcess = refactorings;
-			}
-
-			@Override
-			public void handleException(String commitId, Exception e) {
-				exceptionsCount++;
-				log.error("RefactoringMiner could not handle commit: " + commitId + createErrorState(commitId, project), e);
-				resetGitRepo();
-			}
-
-			private void resetGitRepo() {
-				try {
-					git.reset().setMode(ResetCommand.ResetType.HARD).call();
-				} catch (GitAPIException e1) {
-					log.error("Reset failed for repository: " + gitUrl + " after a commit couldn't be handled." + createErrorState("UNK", project), e1);
-				}
-			}
+	//Called by the RefactoringDetector, if RefactoringMiner could not handle a commit
+	private BiConsumer<String, Exception> getRefactoringExceptionHandler(Git git) {
+		return (commitId, e) -> {
+			exceptionsCount.incrementAndGet();
+			log.error("RefactoringMiner could not handle commit: " + commitId + createErrorState(commitId, project), e);
+			// RefactoringMiner reads the files from the object database, a bare clone has no working tree to reset
+			if (!bareClone)
+				resetGitRepo(git);
 		};
 	}
+
+	private synchronized void resetGitRepo(Git git) {
+		try {
+			git.reset().setMode(ResetCommand.ResetType.HARD).call();
+		} catch (GitAPIException e1) {
+			log.error("Reset failed for repository: " + gitUrl + " after a commit couldn't be handled." + createErrorState("UNK", project), e1);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,259 @@
+package refactoringml;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Processes the commits of a project in stages, e.g. diff computation, RefactoringMiner detection, CK extraction and persistence.
+Every stage runs on its own thread and the stages are connected by bounded queues, so a slow stage applies backpressure on the ones before it.
+Commits leave every stage in the same order they entered it, thus stateful stages, e.g. the PMDatabase updates, still see the history in order.
+Stateless stages can process multiple commits at once on a pool of workers, their results are reassembled in the original order.
+ */
+public class CommitPipeline {
+	private static final Logger log = LogManager.getLogger(CommitPipeline.class);
+	//marks the end of the commit stream in a queue
+	private static final MinedCommit END = new MinedCommit(null);
+
+	private final String name;
+	private final int queueSize;
+	private final List<Stage> stages = new ArrayList<>();
+	//first unexpected error, that aborted the whole pipeline
+	private volatile Throwable fatalError;
+
+	public interface StageWork {
+		void process(MinedCommit minedCommit) throws Exception;
+	}
+
+	public CommitPipeline(String name, int queueSize) {
+		this.name = name;
+		this.queueSize = queueSize;
+	}
+
+	//Add a stage that only processes commits that did not fail in an earlier stage
+	public CommitPipeline addStage(String stageName, StageWork work) {
+		return addStage(stageName, work, true);
+	}
+
+	//Add a stage, if skipFailed is false, the stage also receives the commits that failed before, e.g. to report them
+	public CommitPipeline addStage(String stageName, StageWork work, boolean skipFailed) {
+		stages.add(new Stage(stageName, work, skipFailed, 1));
+		return this;
+	}
+
+	//Add a stage that processes up to workers commits at once, the work has to be thread safe and must not depend on the previous commits
+	public CommitPipeline addParallelStage(String stageName, int workers, StageWork work) {
+		if(workers < 1)
+			throw new IllegalArgumentException("The stage " + stageName + " needs at least one worker.");
+		stages.add(new Stage(stageName, work, true, workers));
+		return this;
+	}
+
+	//Push all commits of the source through the stages, the source returns null once it is exhausted
+	//Blocks until the last stage processed the last commit
+	public void run(Callable<MinedCommit> source) throws Exception {
+		if(stages.isEmpty())
+			throw new IllegalStateException("The pipeline " + name + " has no stages.");
+
+		List<Thread> threads = new ArrayList<>();
+		BlockingQueue<MinedCommit> firstQueue = new ArrayBlockingQueue<>(queueSize);
+		BlockingQueue<MinedCommit> input = firstQueue;
+		for(int i = 0; i < stages.size(); i++) {
+			Stage stage = stages.get(i);
+			BlockingQueue<MinedCommit> output = i == stages.size() - 1 ? null : new ArrayBlockingQueue<>(queueSize);
+			stage.connect(input, output);
+			Thread thread = new Thread(stage, stage.name + "-" + name);
+			thread.setDaemon(true);
+			threads.add(thread);
+			input = output;
+		}
+		threads.forEach(Thread::start);
+
+		try {
+			for (MinedCommit minedCommit = source.call(); minedCommit != null && fatalError == null; minedCommit = source.call()) {
+				firstQueue.put(minedCommit);
+			}
+		} catch (Exception e) {
+			abort(e);
+		} finally {
+			firstQueue.put(END);
+			for(Thread thread : threads)
+				thread.join();
+		}
+
+		if(fatalError instanceof Exception)
+			throw (Exception) fatalError;
+		else if(fatalError != null)
+			throw new RuntimeException("The pipeline " + name + " was aborted.", fatalError);
+	}
+
+	private void abort(Throwable t) {
+		if(fatalError == null)
+			fatalError = t;
+		log.fatal("Aborting the pipeline " + name, t);
+	}
+
+	//Per stage statistics, i.e. the throughput and where the stage spent its time
+	public String statistics() {
+		StringBuilder statistics = new StringBuilder("Pipeline statistics for " + name + ":");
+		for(Stage stage : stages)
+			statistics.append("\n\t\t").append(stage.statistics());
+		return statistics.toString();
+	}
+
+	private class Stage implements Runnable {
+		private final String name;
+		private final StageWork work;
+		private final boolean skipFailed;
+		private final int workers;
+		private BlockingQueue<MinedCommit> input;
+		private BlockingQueue<MinedCommit> output;
+
+		//statistics
+		private long processedCommits = 0;
+		private long failedCommits = 0;
+		private long busyNanos = 0;
+		private long waitingForInputNanos = 0;
+		private long blockedOnOutputNanos = 0;
+		private long waitingForWorkersNanos = 0;
+		private final AtomicInteger startedWorkers = new AtomicInteger(0);
+
+		private Stage(String name, StageWork work, boolean skipFailed, int workers) {
+			this.name = name;
+			this.work = work;
+			this.skipFailed = skipFailed;
+			this.workers = workers;
+		}
+
+		private void connect(BlockingQueue<MinedCommit> input, BlockingQueue<MinedCommit> output) {
+			this.input = input;
+			this.output = output;
+		}
+
+		@Override
+		public void run() {
+			ExecutorService executor = workers > 1 ? Executors.newFixedThreadPool(workers, this::newWorkerThread) : null;
+			//commits handed to the workers, in the order they entered this stage
+			Deque<PendingCommit> inFlight = new ArrayDeque<>();
+			try {
+				while (true) {
+					long startWaiting = System.nanoTime();
+					MinedCommit minedCommit = input.take();
+					waitingForInputNanos += System.nanoTime() - startWaiting;
+					if (minedCommit == END)
+						break;
+
+					// after a fatal error we only drain the queue, so that the previous stages can finish
+					boolean skip = fatalError != null || (skipFailed && minedCommit.hasFailed());
+					if (executor == null) {
+						if (!skip)
+							account(minedCommit, false, process(minedCommit));
+						forward(minedCommit);
+					} else {
+						boolean failedBefore = minedCommit.hasFailed();
+						Future<Long> future = skip ? null : executor.submit(() -> process(minedCommit));
+						inFlight.add(new PendingCommit(minedCommit, failedBefore, future));
+						// keep at most one commit per worker in flight, so the memory stays bounded
+						if (inFlight.size() >= workers)
+							complete(inFlight.poll());
+					}
+				}
+
+				while (!inFlight.isEmpty())
+					complete(inFlight.poll());
+				forward(END);
+			} catch (InterruptedException e) {
+				abort(e);
+				Thread.currentThread().interrupt();
+			} finally {
+				if (executor != null)
+					executor.shutdownNow();
+			}
+		}
+
+		//Run the work of this stage on the given commit and return the time it took in nanoseconds
+		private long process(MinedCommit minedCommit) {
+			long startProcessing = System.nanoTime();
+			try {
+				work.process(minedCommit);
+			} catch (Exception e) {
+				minedCommit.fail(name, e);
+			} catch (Throwable t) {
+				abort(t);
+			}
+			return System.nanoTime() - startProcessing;
+		}
+
+		//Wait for the worker processing the oldest commit in flight and forward that commit
+		private void complete(PendingCommit pending) throws InterruptedException {
+			if (pending.future != null) {
+				long startWaiting = System.nanoTime();
+				try {
+					account(pending.minedCommit, pending.failedBefore, pending.future.get());
+				} catch (ExecutionException e) {
+					abort(e.getCause());
+				}
+				waitingForWorkersNanos += System.nanoTime() - startWaiting;
+			}
+			forward(pending.minedCommit);
+		}
+
+		private void account(MinedCommit minedCommit, boolean failedBefore, long nanos) {
+			processedCommits++;
+			busyNanos += nanos;
+			if (!failedBefore && minedCommit.hasFailed())
+				failedCommits++;
+		}
+
+		private void forward(MinedCommit minedCommit) throws InterruptedException {
+			if (output == null)
+				return;
+
+			long startBlocking = System.nanoTime();
+			output.put(minedCommit);
+			blockedOnOutputNanos += System.nanoTime() - startBlocking;
+		}
+
+		private Thread newWorkerThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name + "-worker-" + startedWorkers.incrementAndGet() + "-" + CommitPipeline.this.name);
+			thread.setDaemon(true);
+			return thread;
+		}
+
+		private String statistics() {
+			double busySeconds = busyNanos / 1e9;
+			// the workers of a parallel stage are busy at the same time
+			double throughput = busySeconds == 0 ? 0 : processedCommits / (busySeconds / workers);
+			String statistics = String.format("%s: processed %d commits (%d failed) in %.2f seconds, %.2f commits/second, waited %.2f seconds for input and %.2f seconds on the next stage",
+					name, processedCommits, failedCommits, busySeconds, throughput, waitingForInputNanos / 1e9, blockedOnOutputNanos / 1e9);
+			if (workers > 1)
+				statistics += String.format(", %d workers, waited %.2f seconds for the workers", workers, waitingForWorkersNanos / 1e9);
+			return statistics;
+		}
+	}
+
+	//A commit handed to the workers of a parallel stage
+	private static class PendingCommit {
+		private final MinedCommit minedCommit;
+		private final boolean failedBefore;
+		//null if the commit was skipped
+		private final Future<Long> future;
+
+		private PendingCommit(MinedCommit minedCommit, boolean failedBefore, Future<Long> future) {
+			this.minedCommit = minedCommit;
+			this.failedBefore = failedBefore;
+			this.future = future;
+		}
+	}
+}
@@ -0,0 +1,380 @@
+package refactoringml;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.exception.JDBCConnectionException;
+import refactoringml.db.*;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Durable alternative to the CommitWriter: the persistence stage appends the entities of every commit to a local CommitJournal,
+and a replayer thread writes the records of the journal to the database, independent of the pipeline.
+A slow or unavailable database only delays the replay, the mining goes on as long as the journal fits on the disk.
+Every record is written in its own transaction, together with its sequence in the JournalCheckpoint of the project,
+thus a record is written exactly once, even if the journal is replayed again after a crash.
+A transaction, that failed because of the connection to the database, is retried until the database is back,
+a record that failed for any other reason is skipped, as the CommitWriter does.
+The actions to run after a batch was persisted, e.g. storing the source code of a refactoring, cannot be journaled.
+While the entities of a batch are still in memory, the replayer copies the generated ids to them and runs the actions.
+Up to maxPendingEntities entities are kept in memory, the actions of the batches beyond are dropped.
+A record can reference an entity of an earlier record, e.g. the commit meta data of a stable instance, whose row is referenced instead of being inserted again.
+The ids of the rows of the latest records are kept in memory, once an id is lost, e.g. after a crash,
+the commit meta data is looked up by its commit hash, and a record referencing any other entity fails.
+Journals left behind by a crashed worker are replayed by replayLeftovers.
+ */
+public class CommitSpool {
+	private static final Logger log = LogManager.getLogger(CommitSpool.class);
+
+	//suffix of all journals in the journal directory
+	private static final String JOURNAL_SUFFIX = ".journal";
+	//delays between the retries of a record, while the database is not available
+	private static final long MIN_RETRY_DELAY = 1000;
+	private static final long MAX_RETRY_DELAY = 60 * 1000;
+
+	private final String name;
+	private final CommitJournal journal;
+	private final long projectId;
+	private final Database db;
+	private final EntityCodec codec;
+	private final boolean bulkLoad;
+	private final int maxPendingEntities;
+	private final Thread replayer;
+
+	//batches of the records not replayed yet, whose entities are kept in memory, guarded by this
+	private final Map<Long, Pending> pending = new HashMap<>();
+	private int pendingEntities = 0;
+	//sequence of the last appended and of the last replayed record, guarded by this
+	private long appendedSequence = 0;
+	private long replayedSequence = 0;
+	private boolean closed = false;
+	//unexpected error of the replayer, that stopped it
+	private volatile Throwable fatalError;
+
+	//journal position of every entity appended by this spool, the weak keys do not keep the entities alive
+	//the entities do not override equals and hashCode, thus they are compared by identity
+	private final Map<Object, String> journaled = Collections.synchronizedMap(new WeakHashMap<>());
+	//ids of the rows written for the journal positions of the latest records, up to maxPendingEntities, only used by the replayer
+	//a lost id is looked up in the database, see resolve
+	private final Map<String, Long> replayedIds;
+
+	//statistics
+	private final AtomicLong replayedCommits = new AtomicLong(0);
+	private final AtomicLong skippedCommits = new AtomicLong(0);
+	private final AtomicLong failedCommits = new AtomicLong(0);
+	private final AtomicLong retries = new AtomicLong(0);
+	private final AtomicLong droppedActions = new AtomicLong(0);
+	private final AtomicLong lookedUpIds = new AtomicLong(0);
+	private final AtomicLong insertedAgain = new AtomicLong(0);
+	private final AtomicLong replayedEntities = new AtomicLong(0);
+	private final AtomicLong replayTime = new AtomicLong(0);
+	private long maxLag = 0;
+
+	private static class Pending {
+		private final List<Object> entities;
+		private final List<Runnable> afterPersistActions;
+
+		private Pending(List<Object> entities, List<Runnable> afterPersistActions) {
+			this.entities = entities;
+			this.afterPersistActions = afterPersistActions;
+		}
+	}
+
+	public CommitSpool(String name, File journalFile, long projectId, Database db, boolean bulkLoad, int maxPendingEntities) {
+		this.name = name;
+		this.journal = new CommitJournal(journalFile);
+		this.projectId = projectId;
+		this.db = db;
+		this.codec = db.createEntityCodec();
+		this.bulkLoad = bulkLoad;
+		this.maxPendingEntities = maxPendingEntities;
+		this.replayedIds = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > Math.max(maxPendingEntities, 1);
+			}
+		};
+		this.replayer = new Thread(this::replayAll, "replayer-" + name);
+		this.replayer.setDaemon(true);
+		this.replayer.start();
+	}
+
+	//The spool of a project, with its journal in the journal directory
+	public static CommitSpool forProject(File journalDir, String projectName, long projectId, Database db, boolean bulkLoad, int maxPendingEntities) {
+		File journalFile = new File(journalDir, projectName.replaceAll("[^\\w.-]", "_") + "-" + projectId + JOURNAL_SUFFIX);
+		return new CommitSpool(projectName, journalFile, projectId, db, bulkLoad, maxPendingEntities);
+	}
+
+	//Replay all journals in the journal directory, that were left behind by a crashed worker, blocks until they are in the database
+	//The journal directory must not be shared with a running worker
+	public static void replayLeftovers(File journalDir, Database db, boolean bulkLoad, int maxPendingEntities) throws InterruptedException {
+		File[] journals = journalDir.listFiles((dir, fileName) -> fileName.endsWith(JOURNAL_SUFFIX));
+		if (journals == null)
+			return;
+
+		for (File journalFile : journals) {
+			String fileName = journalFile.getName();
+			long projectId = Long.parseLong(fileName.substring(fileName.lastIndexOf('-') + 1, fileName.length() - JOURNAL_SUFFIX.length()));
+			log.info("Replaying the journal " + journalFile + " of project " + projectId + ", which was left behind by a crashed worker.");
+			CommitSpool spool = new CommitSpool(fileName, journalFile, projectId, db, bulkLoad, maxPendingEntities);
+			spool.close();
+			log.info(spool.statistics());
+		}
+	}
+
+	//Append the batch of the commit to the journal, it is written to the database later
+	public void append(String commitHash, CommitBatch batch) throws IOException {
+		EntityCodec.Encoded encoded;
+		long sequence;
+		synchronized (this) {
+			if (closed)
+				throw new IllegalStateException("The spool " + name + " is closed.");
+			sequence = appendedSequence + 1;
+			encoded = codec.encode(batch, journaled::get);
+			ObjectNode record = JsonNodeFactory.instance.objectNode().put("sequence", sequence).put("commit", commitHash);
+			record.setAll(encoded.getRecord());
+			journal.append(record);
+			appendedSequence = sequence;
+			maxLag = Math.max(maxLag, appendedSequence - replayedSequence);
+
+			List<Object> entities = encoded.getEntities();
+			if (pendingEntities + entities.size() <= maxPendingEntities) {
+				pending.put(sequence, new Pending(entities, batch.getAfterPersistActions()));
+				pendingEntities += entities.size();
+			} else if (!batch.getAfterPersistActions().isEmpty()) {
+				droppedActions.incrementAndGet();
+				log.warn("The replay of " + name + " is " + (appendedSequence - replayedSequence) + " commits behind, " +
+						"the actions after persisting commit " + commitHash + " are dropped.");
+			}
+			notifyAll();
+		}
+
+		List<Object> entities = encoded.getEntities();
+		for (int position = 0; position < entities.size(); position++)
+			journaled.put(entities.get(position), sequence + ":" + position);
+	}
+
+	private void replayAll() {
+		try {
+			long checkpoint = withRetries("reading the checkpoint", () -> db.findJournalCheckpoint(projectId));
+			JsonNode record;
+			while ((record = next()) != null) {
+				long sequence = record.get("sequence").asLong();
+				if (sequence > checkpoint)
+					replay(sequence, record);
+				else
+					skippedCommits.incrementAndGet();
+				finish(sequence);
+			}
+			if (journal.hasIncompleteRecord())
+				log.warn("The journal " + journal.getFile() + " ends with an incomplete record, which was not replayed.");
+		} catch (Throwable t) {
+			log.fatal("The replay of " + name + " stopped unexpectedly, the journal " + journal.getFile() + " is kept.", t);
+			synchronized (this) {
+				fatalError = t;
+				notifyAll();
+			}
+		}
+	}
+
+	//The next complete record of the journal, blocks until one is appended, returns null once the spool is closed and all records were read
+	private JsonNode next() throws IOException, InterruptedException {
+		while (true) {
+			JsonNode record = journal.next();
+			if (record != null)
+				return record;
+			synchronized (this) {
+				// a record appended after the read is read right away
+				if (appendedSequence > replayedSequence)
+					continue;
+				if (closed)
+					return null;
+				wait();
+			}
+		}
+	}
+
+	//Write the record in a single transaction together with its checkpoint, retried while the database is not available
+	private void replay(long sequence, JsonNode record) throws Exception {
+		String commitHash = record.get("commit").asText();
+		long delay = MIN_RETRY_DELAY;
+		while (true) {
+			EntityCodec.Decoded decoded = null;
+			BatchWork work = null;
+			Exception failure = null;
+			try {
+				// every attempt starts from the record, a failed transaction might have assigned ids already
+				decoded = codec.decode(record, this::resolve);
+				work = bulkLoad ? db.beginBulkWork() : db.beginWork();
+				long startTime = System.currentTimeMillis();
+				work.persist(decoded.getBatch());
+				work.checkpoint(projectId, sequence);
+				int entities = work.getEntityCount();
+				work.commit();
+				replayedEntities.addAndGet(entities);
+				replayTime.addAndGet(System.currentTimeMillis() - startTime);
+				replayedCommits.incrementAndGet();
+			} catch (Exception e) {
+				failure = e;
+				if (work != null)
+					work.rollback(" Replaying commit " + commitHash + " of " + name + ".");
+			} finally {
+				if (work != null)
+					work.close();
+			}
+
+			if (failure == null) {
+				afterReplay(sequence, decoded.getEntities());
+				return;
+			}
+			if (!isConnectionFailure(failure)) {
+				failedCommits.incrementAndGet();
+				log.error("Unhandled exception when replaying commit " + commitHash + " of " + name + ", the commit is skipped.", failure);
+				return;
+			}
+			retries.incrementAndGet();
+			log.warn("The database is not available to replay commit " + commitHash + " of " + name + ", retrying in " + delay + " milliseconds: " + failure.getMessage());
+			Thread.sleep(delay);
+			delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+		}
+	}
+
+	//The id of the row written for an entity of an earlier record, either still in memory or looked up by the commit hash of the commit meta data
+	//The commit meta data is only inserted again, if the earlier record did not write it, e.g. because it failed
+	private Long resolve(String journalPosition, Object entity) {
+		Long id = replayedIds.get(journalPosition);
+		if (id != null)
+			return id;
+		if (!(entity instanceof CommitMetaData))
+			throw new IllegalStateException("The row of the " + entity.getClass().getSimpleName() + " written by record " + journalPosition + " of " + name + " is not known.");
+
+		String commitId = ((CommitMetaData) entity).getCommitId();
+		long found = db.findCommitMetaDataId(projectId, commitId);
+		lookedUpIds.incrementAndGet();
+		if (found == 0) {
+			insertedAgain.incrementAndGet();
+			log.warn("The commit meta data of commit " + commitId + " of " + name + " is not in the database, e.g. because its record " + journalPosition + " failed, it is inserted again.");
+			return null;
+		}
+		replayedIds.put(journalPosition, found);
+		return found;
+	}
+
+	//Remember the ids of the written rows, and complete the batch, if it is still in memory
+	private void afterReplay(long sequence, List<Object> entities) {
+		for (int position = 0; position < entities.size(); position++) {
+			long id = codec.getId(entities.get(position));
+			if (id != 0)
+				replayedIds.put(sequence + ":" + position, id);
+		}
+
+		Pending batch;
+		synchronized (this) {
+			batch = pending.get(sequence);
+		}
+		if (batch == null)
+			return;
+		codec.copyIds(entities, batch.entities);
+		for (Runnable action : batch.afterPersistActions) {
+			try {
+				action.run();
+			} catch (RuntimeException e) {
+				log.error("Unhandled exception after replaying record " + sequence + " of " + name + ".", e);
+			}
+		}
+	}
+
+	private synchronized void finish(long sequence) {
+		Pending batch = pending.remove(sequence);
+		if (batch != null)
+			pendingEntities -= batch.entities.size();
+		replayedSequence = sequence;
+		notifyAll();
+	}
+
+	private <T> T withRetries(String task, Callable<T> callable) throws Exception {
+		return withRetries(task + " of " + name, callable, retries);
+	}
+
+	//Call the task until it does not fail because of the connection to the database, with the same delays as the replay of the records
+	//Used for the writes of a journaled run, that are not journaled themselves, e.g. the project
+	public static <T> T retryWhileUnavailable(String task, Callable<T> callable) throws Exception {
+		return withRetries(task, callable, new AtomicLong(0));
+	}
+
+	private static <T> T withRetries(String task, Callable<T> callable, AtomicLong retries) throws Exception {
+		long delay = MIN_RETRY_DELAY;
+		while (true) {
+			try {
+				return callable.call();
+			} catch (Exception e) {
+				if (!isConnectionFailure(e))
+					throw e;
+				retries.incrementAndGet();
+				log.warn("The database is not available for " + task + ", retrying in " + delay + " milliseconds: " + e.getMessage());
+				Thread.sleep(delay);
+				delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+			}
+		}
+	}
+
+	//Failures of the connection to the database, the same transaction can succeed once the database is available again
+	static boolean isConnectionFailure(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+			if (cause instanceof JDBCConnectionException || cause instanceof SQLTransientException ||
+					cause instanceof SQLRecoverableException || cause instanceof ConnectException)
+				return true;
+			// SQL states of class 08 are connection exceptions
+			if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null && ((SQLException) cause).getSQLState().startsWith("08"))
+				return true;
+		}
+		return false;
+	}
+
+	//Replay all appended records and stop the replayer, blocks until the last record is in the database
+	//The journal is removed afterwards, unless the replayer stopped unexpectedly
+	public void close() throws InterruptedException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		replayer.join();
+		if (fatalError != null)
+			throw new IllegalStateException("The replay of " + name + " stopped, the journal " + journal.getFile() + " is kept", fatalError);
+
+		try {
+			journal.delete();
+		} catch (IOException e) {
+			log.error("Could not delete the replayed journal " + journal.getFile(), e);
+		}
+	}
+
+	public long getReplayedCommits() { return replayedCommits.get(); }
+
+	public long getFailedCommits() { return failedCommits.get(); }
+
+	public long getSkippedCommits() { return skippedCommits.get(); }
+
+	public String statistics() {
+		long lag;
+		synchronized (this) {
+			lag = maxLag;
+		}
+		double seconds = replayTime.get() / 1000.0;
+		return String.format("Journal %s: %d commits replayed (%d failed, %d already in the database), up to %d commits behind, %d retries, " +
+						"%d entities in %.2f seconds of transactions, %d batches without their actions after persisting, " +
+						"%d ids of earlier records looked up (%d not found and inserted again)",
+				name, getReplayedCommits(), getFailedCommits(), getSkippedCommits(), lag, retries.get(),
+				replayedEntities.get(), seconds, droppedActions.get(), lookedUpIds.get(), insertedAgain.get());
+	}
+}
@@ -0,0 +1,167 @@
+package refactoringml;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import refactoringml.db.CommitBatch;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Write-behind buffer between the persistence stage of the CommitPipeline and the database.
+The persistence stage only hands the entities of a mined commit over, the MinedCommit with its diff and refactorings is released right away,
+and a dedicated writer thread persists the batches in the order they were submitted, every batch in its own transaction.
+The buffer is bounded by the number of entities waiting to be written, not by the number of commits, as a single commit can hold thousands of instances.
+Once it is full, submitting blocks until the writer caught up, so a slow database applies backpressure on the whole pipeline.
+A batch larger than the whole buffer is accepted once the buffer is empty.
+ */
+public class CommitWriter implements AutoCloseable {
+	private static final Logger log = LogManager.getLogger(CommitWriter.class);
+
+	public interface BatchWrite {
+		void write(String commitHash, CommitBatch batch) throws Exception;
+	}
+
+	private final String name;
+	//max number of entities waiting to be written
+	private final int maxQueuedEntities;
+	private final BatchWrite write;
+	private final Thread writer;
+
+	//batches waiting to be written, guarded by this
+	private final Deque<Pending> pending = new ArrayDeque<>();
+	//entities of the pending batches and of the batch currently written
+	private int queuedEntities = 0;
+	private boolean closed = false;
+	//unexpected error of the writer thread, that stopped it
+	private volatile Throwable fatalError;
+
+	//statistics
+	private final AtomicLong writtenCommits = new AtomicLong(0);
+	private final AtomicLong failedCommits = new AtomicLong(0);
+	private final AtomicLong blockedTime = new AtomicLong(0);
+	private final AtomicLong totalLag = new AtomicLong(0);
+	private final AtomicLong maxLag = new AtomicLong(0);
+	private final AtomicLong totalFlushTime = new AtomicLong(0);
+	private final AtomicLong maxFlushTime = new AtomicLong(0);
+	private int maxQueuedCommits = 0;
+
+	private static class Pending {
+		private final String commitHash;
+		private final CommitBatch batch;
+		private final long submitTime;
+
+		private Pending(String commitHash, CommitBatch batch) {
+			this.commitHash = commitHash;
+			this.batch = batch;
+			this.submitTime = System.currentTimeMillis();
+		}
+	}
+
+	public CommitWriter(String name, int maxQueuedEntities, BatchWrite write) {
+		if(maxQueuedEntities < 1)
+			throw new IllegalArgumentException("The writer " + name + " needs room for at least one entity.");
+		this.name = name;
+		this.maxQueuedEntities = maxQueuedEntities;
+		this.write = write;
+		this.writer = new Thread(this::writeAll, "writer-" + name);
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	//Queue the batch of the commit to be written, blocks while the buffer is full
+	public void submit(String commitHash, CommitBatch batch) throws InterruptedException {
+		long startTime = System.currentTimeMillis();
+		synchronized (this) {
+			while(fatalError == null && queuedEntities > 0 && queuedEntities + batch.size() > maxQueuedEntities)
+				wait();
+			if(fatalError != null)
+				throw new IllegalStateException("The writer " + name + " stopped", fatalError);
+			if(closed)
+				throw new IllegalStateException("The writer " + name + " is closed.");
+
+			pending.addLast(new Pending(commitHash, batch));
+			queuedEntities += batch.size();
+			maxQueuedCommits = Math.max(maxQueuedCommits, pending.size());
+			notifyAll();
+		}
+		blockedTime.addAndGet(System.currentTimeMillis() - startTime);
+	}
+
+	private void writeAll() {
+		try {
+			Pending next;
+			while((next = take()) != null) {
+				long lag = System.currentTimeMillis() - next.submitTime;
+				long startTime = System.currentTimeMillis();
+				try {
+					write.write(next.commitHash, next.batch);
+				} catch (Exception e) {
+					failedCommits.incrementAndGet();
+					log.error("Writing the commit " + next.commitHash + " of " + name + " failed.", e);
+				}
+				long flushTime = System.currentTimeMillis() - startTime;
+				writtenCommits.incrementAndGet();
+				totalLag.addAndGet(lag);
+				maxLag.accumulateAndGet(lag, Math::max);
+				totalFlushTime.addAndGet(flushTime);
+				maxFlushTime.accumulateAndGet(flushTime, Math::max);
+
+				synchronized (this) {
+					queuedEntities -= next.batch.size();
+					notifyAll();
+				}
+			}
+		} catch (Throwable t) {
+			log.fatal("The writer " + name + " stopped unexpectedly.", t);
+			synchronized (this) {
+				fatalError = t;
+				notifyAll();
+			}
+		}
+	}
+
+	//The oldest pending batch, or null once the writer is closed and all batches are written
+	private synchronized Pending take() throws InterruptedException {
+		while(pending.isEmpty() && !closed)
+			wait();
+		return pending.pollFirst();
+	}
+
+	//Write all pending batches and stop the writer thread, blocks until the last batch is written
+	//If the caller is interrupted while waiting, the writer keeps writing in the background, but the batches are not known to be written
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the writer " + name + " to write " + getQueuedCommits() + " pending commits", e);
+		}
+		if(fatalError != null)
+			throw new IllegalStateException("The writer " + name + " stopped", fatalError);
+	}
+
+	//Number of batches waiting to be written
+	public synchronized int getQueuedCommits() { return pending.size(); }
+
+	public long getWrittenCommits() { return writtenCommits.get(); }
+
+	public long getFailedCommits() { return failedCommits.get(); }
+
+	public String statistics() {
+		long commits = getWrittenCommits();
+		int queuedCommits;
+		synchronized (this) {
+			queuedCommits = this.maxQueuedCommits;
+		}
+		return String.format("Writer %s: %d commits written (%d failed), lag %.2f ms avg and %d ms max, flush %.2f ms avg and %d ms max, " +
+						"up to %d commits queued, blocked the pipeline for %d ms",
+				name, commits, getFailedCommits(), commits == 0 ? 0 : totalLag.get() / (double) commits, maxLag.get(),
+				commits == 0 ? 0 : totalFlushTime.get() / (double) commits, maxFlushTime.get(), queuedCommits, blockedTime.get());
+	}
+}
@@ -0,0 +1,73 @@
+package refactoringml;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.refactoringminer.api.Refactoring;
+import refactoringml.db.CommitBatch;
+import refactoringml.db.CommitMetaData;
+import refactoringml.util.CommitDiff;
+import java.util.List;
+
+//State of a single commit while it travels through the stages of the CommitPipeline
+public class MinedCommit {
+	private final RevCommit commit;
+	//the time this commit entered the pipeline, used to measure the latency per commit
+	private final long startTime;
+	//commits before the range of a shard only update the process metrics and persist nothing, see App
+	private final boolean warmUp;
+
+	private CommitMetaData superCommitMetaData;
+	//diff entries, line counts and renames between the commit and its first parent
+	private CommitDiff diff;
+	//all by RefactoringMiner detected refactorings, null if RefactoringMiner did not run or timed out
+	private List<Refactoring> refactorings;
+	//all entities to persist for this commit
+	private CommitBatch batch = new CommitBatch();
+
+	//name of the stage that failed to process this commit, and the exception it raised
+	private String failedStage;
+	private Exception failure;
+
+	public MinedCommit(RevCommit commit) {
+		this(commit, false);
+	}
+
+	public MinedCommit(RevCommit commit, boolean warmUp) {
+		this.commit = commit;
+		this.warmUp = warmUp;
+		this.startTime = System.currentTimeMillis();
+	}
+
+	public RevCommit getCommit() { return commit; }
+
+	public String getCommitHash() { return commit.getId().getName(); }
+
+	public long getStartTime() { return startTime; }
+
+	public boolean isWarmUp() { return warmUp; }
+
+	public CommitMetaData getSuperCommitMetaData() { return superCommitMetaData; }
+
+	public void setSuperCommitMetaData(CommitMetaData superCommitMetaData) { this.superCommitMetaData = superCommitMetaData; }
+
+	public CommitDiff getDiff() { return diff; }
+
+	public void setDiff(CommitDiff diff) { this.diff = diff; }
+
+	public List<Refactoring> getRefactorings() { return refactorings; }
+
+	public void setRefactorings(List<Refactoring> refactorings) { this.refactorings = refactorings; }
+
+	public CommitBatch getBatch() { return batch; }
+
+	//Mark this commit as failed, the following stages will not process it anymore
+	public void fail(String stage, Exception e) {
+		this.failedStage = stage;
+		this.failure = e;
+	}
+
+	public boolean hasFailed() { return failure != null; }
+
+	public String getFailedStage() { return failedStage; }
+
+	public Exception getFailure() { return failure; }
+}
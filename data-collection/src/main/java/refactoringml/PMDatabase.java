@@ -6,6 +6,7 @@ import refactoringml.util.LogUtils;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class PMDatabase {
@@ -77,6 +78,13 @@ public class PMDatabase {
 		database.put(fileName, pmTracker);
 	}
 
+	//Commits that are the base of at least one tracker, their files might still be needed for stable instances
+	public Set<String> baseCommitIds() {
+		return database.values().stream()
+				.map(pmTracker -> pmTracker.getBaseCommitMetaData().getCommitId())
+				.collect(Collectors.toSet());
+	}
+
 	public String toString(){
 		return "PMDatabase{" +
 				"database=" + database.toString() + "}";
@@ -1,12 +1,12 @@
 package refactoringml;
 
+import com.github.mauricioaniche.ck.CKClassResult;
 import com.github.mauricioaniche.ck.CKMethodResult;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.diff.Edit;
-import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
 import refactoringml.db.*;
 import refactoringml.util.*;
@@ -17,41 +17,48 @@ import static refactoringml.util.CKUtils.cleanCkClassName;
 import static refactoringml.util.FilePathUtils.enforceUnixPaths;
 import static refactoringml.util.CKUtils.*;
 import static refactoringml.util.FileUtils.*;
-import static refactoringml.util.JGitUtils.getDiffFormater;
-import static refactoringml.util.JGitUtils.readFileFromGit;
 import static refactoringml.util.LogUtils.createErrorState;
 import static refactoringml.util.RefactoringUtils.*;
 
 public class ProcessMetricsCollector {
 	private Project project;
-	private Database db;
-	private Repository repository;
+	private GitContext gitContext;
 	private String fileStoragePath;
 	private PMDatabase pmDatabase;
+	private CKService ckService;
+	//CK runs of this project
+	private CKService.Usage ckUsage;
+	private CKCache ckCache;
+	private MetricRegistry metricRegistry;
 
 	private static final Logger log = LogManager.getLogger(ProcessMetricsCollector.class);
 
-	public ProcessMetricsCollector(Project project, Database db, Repository repository, PMDatabase pmDatabase, String fileStoragePath) {
+	public ProcessMetricsCollector(Project project, GitContext gitContext, PMDatabase pmDatabase, CKService ckService, CKService.Usage ckUsage, CKCache ckCache, MetricRegistry metricRegistry, String fileStoragePath) {
 		this.project = project;
-		this.db = db;
-		this.repository = repository;
+		this.gitContext = gitContext;
 		this.fileStoragePath = FilePathUtils.lastSlashDir(fileStoragePath);
 		this.pmDatabase = pmDatabase;
+		this.ckService = ckService;
+		this.ckUsage = ckUsage;
+		this.ckCache = ckCache;
+		this.metricRegistry = metricRegistry;
 	}
 
 	//if this commit contained a refactoring, then collect its process metrics for all affected class files,
 	//otherwise only update the file process metrics
-	public void collectMetrics(RevCommit commit, CommitMetaData superCommitMetaData, List<RefactoringCommit> allRefactoringCommits, List<DiffEntry> entries, Set<ImmutablePair<String, String>> refactoringRenames, Set<ImmutablePair<String, String>> jGitRenames) throws IOException {
+	//all stable instances found are added to the batch, without a batch, e.g. while warming up, only the trackers are updated
+	public void collectMetrics(RevCommit commit, CommitMetaData superCommitMetaData, List<RefactoringCommit> allRefactoringCommits, CommitDiff diff,
+							   Set<ImmutablePair<String, String>> refactoringRenames, CommitBatch batch) throws IOException {
 		collectProcessMetricsOfRefactoredCommit(superCommitMetaData, allRefactoringCommits);
 
-		processRenames(refactoringRenames, jGitRenames, superCommitMetaData);
+		processRenames(refactoringRenames, diff.getRenames(), superCommitMetaData);
 
 		// we go now change by change in the commit to update the process metrics there
 		// Also if a stable instance is found it is stored with the metrics in the DB
-		collectProcessMetricsOfStableCommits(commit, superCommitMetaData, entries);
+		collectProcessMetricsOfStableCommits(commit, superCommitMetaData, diff, batch);
 	}
 
-	//Collect the ProcessMetrics of the RefactoringCommit before this commit happened and update the database entry with it
+	//Collect the ProcessMetrics of the RefactoringCommit before this commit happened and set them on the not yet persisted RefactoringCommit
 	private void collectProcessMetricsOfRefactoredCommit(CommitMetaData superCommitMetaData, List<RefactoringCommit> allRefactoringCommits) {
 		for (RefactoringCommit refactoringCommit : allRefactoringCommits) {
 			String fileName = refactoringCommit.getFilePath();
@@ -62,7 +69,6 @@ public class ProcessMetricsCollector {
 					new ProcessMetrics(0, 0, 0, 0, 0);
 
 			refactoringCommit.setProcessMetrics(dbProcessMetrics);
-			db.update(refactoringCommit);
 
 			pmDatabase.reportRefactoring(fileName, superCommitMetaData);
 		}
@@ -104,8 +110,9 @@ public class ProcessMetricsCollector {
 	//Update the process metrics of all affected class files:
 	//Reset the PMTracker for all class files, that were refactored on this commit
 	//Increase the PMTracker for all class files, that were not refactored but changed on this commit
-	private void collectProcessMetricsOfStableCommits(RevCommit commit, CommitMetaData superCommitMetaData, List<DiffEntry> entries) throws IOException {
-			for (DiffEntry entry : entries) {
+	//Without a batch, e.g. while warming up, the trackers are updated but no stable instances are collected
+	private void collectProcessMetricsOfStableCommits(RevCommit commit, CommitMetaData superCommitMetaData, CommitDiff diff, CommitBatch batch) throws IOException {
+			for (DiffEntry entry : diff.getEntries()) {
 				String fileName = enforceUnixPaths(entry.getNewPath());
 
 				// do not collect these numbers if not a java file (save some memory)
@@ -123,9 +130,8 @@ public class ProcessMetricsCollector {
 				}
 
 				// collect number of lines deleted and added in that file
-				List<Edit> editList = getDiffFormater().toFileHeader(entry).toEditList();
-				int linesDeleted = calculateLinesDeleted(editList);
-				int linesAdded = calculateLinesAdded(editList);
+				int linesDeleted = diff.getLinesDeleted(entry);
+				int linesAdded = diff.getLinesAdded(entry);
 
 				// we increase the counter here. This means a class will go to the 'non refactored' bucket
 				// only after we see it X times (and not involved in a refactoring, otherwise, counters are resetted).
@@ -133,7 +139,8 @@ public class ProcessMetricsCollector {
 
 				//The last commit passed the stability threshold for this class file
 				if(pmTracker.calculateStability(project.getCommitCountThresholds())){
-					outputNonRefactoredClass(pmTracker);
+					if(batch != null)
+						outputNonRefactoredClass(pmTracker, batch);
 
 					// we then reset the counter, and start again.
 					// it is ok to use the same class more than once, as metrics as well as
@@ -147,53 +154,59 @@ public class ProcessMetricsCollector {
 			}
 	}
 
-	//Store the refactoring instances in the DB
-	private void outputNonRefactoredClass (ProcessMetricTracker pmTracker) throws IOException {
-		String tempDir = null;
+	//Add the stable instances to the batch
+	private void outputNonRefactoredClass (ProcessMetricTracker pmTracker, CommitBatch batch) {
 		try {
 			String commitBackThen = pmTracker.getBaseCommitMetaData().getCommitId();
 			log.debug("Class " + pmTracker.getFileName() + " is an example of a not refactored instance with the stable commit: " + commitBackThen);
 
 			// we extract the source code from back then (as that's the one that never deserved a refactoring)
-			String sourceCodeBackThen = readFileFromGit(repository, commitBackThen, pmTracker.getFileName());
-			// create a temp dir to store the source code files and run CK there
-			tempDir = createTmpDir();
+			ObjectId blobBackThen = gitContext.findBlobId(commitBackThen, pmTracker.getFileName());
+			String sourceCodeBackThen = gitContext.readFile(blobBackThen);
 
-			// we save it in the permanent storage...
+			// we save it in the permanent storage, the CK metrics are calculated in memory
 			writeFile(fileStoragePath +  pmTracker.getFileName() + "/" + "not-refactored/" + pmTracker.getFileName(), sourceCodeBackThen);
-			// ... as well as in the temp one, so that we can calculate the CK metrics
-			writeFile(tempDir + pmTracker.getFileName(), sourceCodeBackThen);
 
-			if(pmTracker.getBaseCommitMetaData().getId() == 0)
-				db.persist(pmTracker.getBaseCommitMetaData());
-
-			CommitMetaData commitMetaData = db.loadCommitMetaData(pmTracker.getBaseCommitMetaData().getId());
-			List<StableCommit> stableCommits = codeMetrics(commitMetaData, tempDir, pmTracker.getCommitCountThreshold());
+			// the base commit meta data is either persisted together with the batch or attached to it, if it already exists
+			CommitMetaData commitMetaData = pmTracker.getBaseCommitMetaData();
+			List<CKClassResult> ckResults = calculateCkMetrics(commitMetaData, pmTracker.getFileName(), blobBackThen, sourceCodeBackThen);
+			List<StableCommit> stableCommits = codeMetrics(commitMetaData, pmTracker.getFileName(), blobBackThen, ckResults, pmTracker.getCommitCountThreshold(), batch);
 
 			// print its process metrics in the same process metrics file
 			// note that we print the process metrics back then (X commits ago)
 			for(StableCommit stableCommit : stableCommits) {
 				stableCommit.setProcessMetrics(new ProcessMetrics(pmTracker.getBaseProcessMetrics()));
-				db.persist(stableCommit);
+				batch.add(stableCommit);
 			}
 		} catch(Exception e) {
 			log.error(e.getClass().getCanonicalName() + " while processing stable process metrics." + createErrorState(pmTracker.getBaseCommitMetaData().getCommitId(), project), e);
-		} finally {
-			cleanTempDir(tempDir);
 		}
 	}
 
+	//Calculate the CK metrics of the file version, unless they are already in the cache
+	private List<CKClassResult> calculateCkMetrics(CommitMetaData commitMetaData, String fileName, ObjectId blobId, String sourceCode) {
+		List<CKClassResult> ckResults = ckCache.get(blobId);
+		if(ckResults == null) {
+			ckResults = Collections.synchronizedList(new ArrayList<>());
+			// only complete results are cached, a failed CK run is retried the next time
+			if(ckService.calculate(Collections.singletonMap(fileName, sourceCode), commitMetaData.getCommitId(), project.getGitUrl(), ckUsage, ckResults::add))
+				ckCache.put(blobId, ckResults);
+		}
+		return ckResults;
+	}
+
 	//TODO: Fix this, as it generates many duplicates
-	private List<StableCommit> codeMetrics(CommitMetaData commitMetaData, String tempDir, int commitThreshold) {
+	//The class and method metrics are shared by all instances of the same file version, see the MetricRegistry
+	private List<StableCommit> codeMetrics(CommitMetaData commitMetaData, String fileName, ObjectId blobId, List<CKClassResult> ckResults, int commitThreshold, CommitBatch batch) {
 		List<StableCommit> stableCommits = new ArrayList<>();
 
-		CKUtils.calculate(tempDir, commitMetaData.getCommitId(), project.getGitUrl(), ck -> {
+		for(CKClassResult ck : ckResults) {
 			String cleanedCkClassName = cleanCkClassName(ck.getClassName());
-			ClassMetric classMetric = extractClassMetrics(ck);
+			ClassMetric classMetric = metricRegistry.classMetric(blobId, ck, batch);
 
 			Set<CKMethodResult> methods = ck.getMethods();
 			for(CKMethodResult ckMethodResult : methods) {
-				MethodMetric methodMetrics = extractMethodMetrics(ckMethodResult);
+				MethodMetric methodMetrics = metricRegistry.methodMetric(blobId, ck, ckMethodResult, batch);
 
 				Set<Map.Entry<String, Integer>> variables = ckMethodResult.getVariablesUsage().entrySet();
 				for (Map.Entry<String, Integer> entry : variables) {
@@ -202,7 +215,7 @@ public class ProcessMetricsCollector {
 					StableCommit stableCommitV = new StableCommit(
 							project,
 							commitMetaData,
-							enforceUnixPaths(ck.getFile()).replace(tempDir, ""),
+							fileName,
 							cleanedCkClassName,
 							classMetric,
 							methodMetrics,
@@ -219,7 +232,7 @@ public class ProcessMetricsCollector {
 					StableCommit stableCommitM = new StableCommit(
 							project,
 							commitMetaData,
-							enforceUnixPaths(ck.getFile()).replace(tempDir, ""),
+							fileName,
 							cleanedCkClassName,
 							classMetric,
 							methodMetrics,
@@ -244,7 +257,7 @@ public class ProcessMetricsCollector {
 				StableCommit stableCommitF = new StableCommit(
 						project,
 						commitMetaData,
-						enforceUnixPaths(ck.getFile()).replace(tempDir, ""),
+						fileName,
 						cleanedCkClassName,
 						classMetric,
 						null,
@@ -261,7 +274,7 @@ public class ProcessMetricsCollector {
 				StableCommit stableCommit = new StableCommit(
 						project,
 						commitMetaData,
-						enforceUnixPaths(ck.getFile()).replace(tempDir, ""),
+						fileName,
 						cleanedCkClassName,
 						classMetric,
 						null,
@@ -272,7 +285,7 @@ public class ProcessMetricsCollector {
 
 				stableCommits.add(stableCommit);
 			}
-		});
+		}
 
 		return stableCommits;
 	}
@@ -0,0 +1,89 @@
+package refactoringml;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Runs multiple projects at the same time in one JVM, each project on its own thread.
+The number of projects is limited by the configured slots and by the heap budget:
+every project is expected to need projectHeap bytes, thus the slots never exceed the max heap divided by it,
+and another project only starts if that much heap is currently free, unless no project runs at all.
+ */
+public class ProjectScheduler implements AutoCloseable {
+	private static final Logger log = LogManager.getLogger(ProjectScheduler.class);
+	//how long to wait before checking the free heap again
+	private static final long HEAP_CHECK_INTERVAL = 1000;
+
+	private final int slots;
+	//heap in bytes that a single project is expected to need
+	private final long projectHeap;
+	private final ExecutorService executor;
+	//guarded by this
+	private int runningProjects = 0;
+
+	public ProjectScheduler(int maxProjects, long projectHeap) {
+		this.projectHeap = projectHeap;
+		long heapSlots = projectHeap > 0 ? Runtime.getRuntime().maxMemory() / projectHeap : maxProjects;
+		this.slots = (int) Math.max(1, Math.min(maxProjects, heapSlots));
+
+		AtomicInteger threadCount = new AtomicInteger(0);
+		this.executor = Executors.newFixedThreadPool(slots, runnable -> new Thread(runnable, "project-" + threadCount.incrementAndGet()));
+		log.info("Mining up to " + slots + " projects at once, with " + projectHeap / 1024 / 1024 + " MB heap per project and " +
+				Runtime.getRuntime().maxMemory() / 1024 / 1024 + " MB max heap.");
+	}
+
+	//Block until another project can start and reserve a slot for it
+	//Every reserved slot has to be passed to run, or given back with release
+	public synchronized void reserve() throws InterruptedException {
+		while (runningProjects >= slots || (runningProjects > 0 && freeHeap() < projectHeap)) {
+			if (runningProjects < slots)
+				log.debug("Waiting for " + projectHeap / 1024 / 1024 + " MB of free heap, before starting another project.");
+			wait(HEAP_CHECK_INTERVAL);
+		}
+		runningProjects++;
+	}
+
+	//Give back a reserved slot, that is not used
+	public synchronized void release() {
+		runningProjects--;
+		notifyAll();
+	}
+
+	//Mine a project in a reserved slot, the slot is released once the project finished
+	public void run(Runnable project) {
+		executor.execute(() -> {
+			try {
+				project.run();
+			} finally {
+				release();
+			}
+		});
+	}
+
+	public int getSlots() { return slots; }
+
+	public synchronized int getRunningProjects() { return runningProjects; }
+
+	//Heap that is not used yet or can still be allocated
+	private static long freeHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+	}
+
+	//Wait until all started projects finished, an interrupt stops the waiting, but not the projects
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+				log.info("Waiting for " + getRunningProjects() + " projects to finish.");
+		} catch (InterruptedException e) {
+			log.error("Interrupted while waiting for " + getRunningProjects() + " projects to finish.");
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -1,113 +1,86 @@
 package refactoringml;
 
+import com.github.mauricioaniche.ck.CKClassResult;
 import com.github.mauricioaniche.ck.CKMethodResult;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.refactoringminer.api.Refactoring;
 import refactoringml.db.*;
+import refactoringml.util.CKCache;
+import refactoringml.util.CKService;
 import refactoringml.util.CKUtils;
+import refactoringml.util.GitContext;
+import refactoringml.util.MetricRegistry;
 import refactoringml.util.RefactoringUtils;
 import java.io.IOException;
 import java.util.*;
 import static refactoringml.util.CKUtils.*;
 import static refactoringml.util.FilePathUtils.*;
 import static refactoringml.util.FileUtils.*;
-import static refactoringml.util.JGitUtils.getMapWithOldAndNewFiles;
-import static refactoringml.util.JGitUtils.readFileFromGit;
+import static refactoringml.util.JGitUtils.*;
 import static refactoringml.util.LogUtils.*;
 import static refactoringml.util.RefactoringUtils.*;
 
 public class RefactoringAnalyzer {
-	private String tempDir;
 	private Project project;
-	private Database db;
-	private Repository repository;
+	private GitContext gitContext;
 	private boolean storeFullSourceCode;
 	private String fileStorageDir;
 	private PMDatabase pmDatabase;
+	private CKService ckService;
+	//CK runs of this project
+	private CKService.Usage ckUsage;
+	private CKCache ckCache;
+	private MetricRegistry metricRegistry;
 
 	private static final Logger log = LogManager.getLogger(RefactoringAnalyzer.class);
 
-	public RefactoringAnalyzer (Project project, Database db, Repository repository, PMDatabase pmDatabase, String fileStorageDir, boolean storeFullSourceCode) {
+	public RefactoringAnalyzer (Project project, GitContext gitContext, PMDatabase pmDatabase, CKService ckService, CKService.Usage ckUsage, CKCache ckCache, MetricRegistry metricRegistry, String fileStorageDir, boolean storeFullSourceCode) {
 		this.project = project;
-		this.db = db;
-		this.repository = repository;
+		this.gitContext = gitContext;
 		this.storeFullSourceCode = storeFullSourceCode;
-		this.tempDir = null;
 		this.pmDatabase = pmDatabase;
+		this.ckService = ckService;
+		this.ckUsage = ckUsage;
+		this.ckCache = ckCache;
+		this.metricRegistry = metricRegistry;
 		this.fileStorageDir = lastSlashDir(fileStorageDir);
 	}
 
-	public List<RefactoringCommit> collectCommitData(RevCommit commit, CommitMetaData superCommitMetaData, List<Refactoring> refactoringsToProcess, List<DiffEntry> entries) {
+	//Collect the RefactoringCommits of all refactorings in this commit, all entities to persist are added to the batch
+	//All refactored files are analyzed in a single CK run, so the CK cost depends on the number of distinct files, not on the number of refactorings
+	public List<RefactoringCommit> collectCommitData(RevCommit commit, CommitMetaData superCommitMetaData, List<Refactoring> refactoringsToProcess, List<DiffEntry> entries, CommitBatch batch) {
 		List<RefactoringCommit> allRefactorings = new ArrayList<>();
-		boolean persistedCommitMetaData = false;
 
 		try {
-			//get the map between new path -> old path
-			HashMap<String, String> filesMap = getMapWithOldAndNewFiles(entries);
-
-			// get the map between class names
-			HashMap<String, String> classAliases = getClassAliases(refactoringsToProcess);
-			//Iterate over all Refactorings found for this commit
-			for (Refactoring refactoring : refactoringsToProcess) {
-
-				String refactoringSummary = refactoring.toString().trim();
-				log.debug("Process Commit [" + commit.getId().getName() + "] with Refactoring: [" + refactoringSummary + "]");
-
-				//loop over all refactored classes, multiple classes can be refactored by the same refactoring, e.g. Extract Interface Refactoring
-				for (ImmutablePair<String, String> pair : refactoredFilesAndClasses(refactoring, refactoring.getInvolvedClassesBeforeRefactoring())) {
-					// get the name of the file before the refactoring
-					// if the one returned by RMiner exists in the map, we use the one in the map instead
-					String refactoredClassFile = enforceUnixPaths(pair.getLeft());
-					//ignore the filename from JGit for move source dirs etc, because it is unreliable (#133)
-					if(!isClassRename(refactoring) && filesMap.containsKey(refactoredClassFile))
-						refactoredClassFile = enforceUnixPaths(filesMap.get(refactoredClassFile));
-
-					/**
-					 * Sometimes, RMiner finds refactorings in newly introduced classes. Often, as part of larger refactorings.
-					 * (See https://github.com/tsantalis/RefactoringMiner/issues/89 for a better understanding)
-					 * We can't use those, as we need a file in the previous commit to collect metrics.
-					 * Thus, we skip this refactoring.
-					 */
-					if(fileDoesNotExist(refactoredClassFile)) {
-						log.error("Refactoring in a newly introduced file, which we skip: " + pair.getLeft() + ", commit = " + superCommitMetaData + ", refactoring = " + shortSummary(refactoringSummary));
-						continue;
-					}
-
-					/**
-					 * Now, we get the name of the class that was refactored. However, we skip refactorings in anonymous classes.
-					 * For us, it's pretty hard to get the code metrics for those (as CK 0.6.0 doesn't return
-					 * good names for anonymous classes).
-					 * (If the heuristic fail, it's not a problem, as later we won't be able to find code metrics for it; so we will never
-					 * store "bad data")
-					 */
-					String refactoredClassNameFromRMiner = pair.getRight();
-					if(isAnonymousClass(refactoredClassNameFromRMiner)) {
-						log.error("Refactoring in an anonymous class, which we skip: " + refactoredClassNameFromRMiner + ", commit = " + superCommitMetaData + ", refactoring = " + shortSummary(refactoringSummary));
-						continue;
-					}
-					if(!persistedCommitMetaData){
-						persistedCommitMetaData = true;
-						db.persist(superCommitMetaData);
-					}
-					ImmutablePair<String, String> refactoredClassName = new ImmutablePair<>(refactoredClassNameFromRMiner, classAliases.get(refactoredClassNameFromRMiner));
-
-					// build the full RefactoringCommit object
-					RefactoringCommit refactoringCommit = buildRefactoringCommitObject(superCommitMetaData, refactoring, refactoringSummary, refactoredClassName, refactoredClassFile);
-
-					if (refactoringCommit != null) {
-						// mark it for the process metrics collection
-						allRefactorings.add(refactoringCommit);
-
-						if(storeFullSourceCode)
-							storeSourceCode(refactoringCommit.getId(), refactoring, commit);
-					} else {
-						log.debug("RefactoringCommit instance was not created for the class: " + refactoredClassName + " and the refactoring type: " + refactoring.getName()  + " on commit " + commit.getName());
-					}
+			List<RefactoredClass> refactoredClasses = findRefactoredClasses(superCommitMetaData, refactoringsToProcess, entries);
+			if(refactoredClasses.isEmpty())
+				return allRefactorings;
+			batch.add(superCommitMetaData);
+
+			// calculate the metrics of all distinct files in the previous version at once
+			Set<String> fileNames = new LinkedHashSet<>();
+			refactoredClasses.forEach(refactoredClass -> fileNames.add(refactoredClass.fileName));
+			Map<String, ObjectId> blobIds = new HashMap<>();
+			Map<String, List<CKClassResult>> ckResults = calculateCkMetrics(superCommitMetaData, fileNames, blobIds);
+
+			for (RefactoredClass refactoredClass : refactoredClasses) {
+				// build the full RefactoringCommit object
+				RefactoringCommit refactoringCommit = buildRefactoringCommitObject(superCommitMetaData, refactoredClass, blobIds.get(refactoredClass.fileName), ckResults.get(refactoredClass.fileName), batch);
+
+				if (refactoringCommit != null) {
+					// mark it for the process metrics collection
+					allRefactorings.add(refactoringCommit);
+
+					// the id of the refactoring commit is only known once it was persisted
+					if(storeFullSourceCode)
+						batch.afterPersist(() -> storeSourceCode(refactoringCommit.getId(), refactoredClass.refactoring, commit));
+				} else {
+					log.debug("RefactoringCommit instance was not created for the class: " + refactoredClass.classNames + " and the refactoring type: " + refactoredClass.refactoring.getName()  + " on commit " + commit.getName());
 				}
 			}
 		} catch (Exception e){
@@ -117,72 +90,128 @@ public class RefactoringAnalyzer {
 		return allRefactorings;
 	}
 
-	protected RefactoringCommit buildRefactoringCommitObject(CommitMetaData superCommitMetaData, Refactoring refactoring, String refactoringSummary, ImmutablePair<String, String> refactoredClassNames, String fileName) {
-		String parentCommitId = superCommitMetaData.getParentCommitId();
-
-		try {
-			/**
-			 * Now, we get the contents of the file in the previous version,
-			 * which we use to extract the features.
-			 */
-			String sourceCodeInPreviousVersion = readFileFromGit(repository, parentCommitId, fileName);
-			tempDir = createTmpDir();
-			writeFile(tempDir + "/" + fileName, sourceCodeInPreviousVersion);
-
-			RefactoringCommit refactoringCommit = calculateCkMetrics(refactoredClassNames, superCommitMetaData, refactoring, refactoringSummary);
-			cleanTempDir(tempDir);
-
-			return refactoringCommit;
-		} catch(IOException e) {
-			/**
-			 * We could not open the file in the previous commit. This should not happen.
-			 */
-			log.error("Could not find (previous) version of " + fileName + " in parent commit " + parentCommitId + createRefactoringErrorState(superCommitMetaData.getCommitId(), project, refactoringSummary), e);
+	//Find all classes refactored by the given refactorings, for which we can collect metrics in the previous version
+	private List<RefactoredClass> findRefactoredClasses(CommitMetaData superCommitMetaData, List<Refactoring> refactoringsToProcess, List<DiffEntry> entries) {
+		List<RefactoredClass> refactoredClasses = new ArrayList<>();
+
+		//get the map between new path -> old path
+		HashMap<String, String> filesMap = getMapWithOldAndNewFiles(entries);
+
+		// get the map between class names
+		HashMap<String, String> classAliases = getClassAliases(refactoringsToProcess);
+		//Iterate over all Refactorings found for this commit
+		for (Refactoring refactoring : refactoringsToProcess) {
+
+			String refactoringSummary = refactoring.toString().trim();
+			log.debug("Process Commit [" + superCommitMetaData.getCommitId() + "] with Refactoring: [" + refactoringSummary + "]");
+
+			//loop over all refactored classes, multiple classes can be refactored by the same refactoring, e.g. Extract Interface Refactoring
+			for (ImmutablePair<String, String> pair : refactoredFilesAndClasses(refactoring, refactoring.getInvolvedClassesBeforeRefactoring())) {
+				// get the name of the file before the refactoring
+				// if the one returned by RMiner exists in the map, we use the one in the map instead
+				String refactoredClassFile = enforceUnixPaths(pair.getLeft());
+				//ignore the filename from JGit for move source dirs etc, because it is unreliable (#133)
+				if(!isClassRename(refactoring) && filesMap.containsKey(refactoredClassFile))
+					refactoredClassFile = enforceUnixPaths(filesMap.get(refactoredClassFile));
+
+				/**
+				 * Sometimes, RMiner finds refactorings in newly introduced classes. Often, as part of larger refactorings.
+				 * (See https://github.com/tsantalis/RefactoringMiner/issues/89 for a better understanding)
+				 * We can't use those, as we need a file in the previous commit to collect metrics.
+				 * Thus, we skip this refactoring.
+				 */
+				if(fileDoesNotExist(refactoredClassFile)) {
+					log.error("Refactoring in a newly introduced file, which we skip: " + pair.getLeft() + ", commit = " + superCommitMetaData + ", refactoring = " + shortSummary(refactoringSummary));
+					continue;
+				}
 
-			return null;
+				/**
+				 * Now, we get the name of the class that was refactored. However, we skip refactorings in anonymous classes.
+				 * For us, it's pretty hard to get the code metrics for those (as CK 0.6.0 doesn't return
+				 * good names for anonymous classes).
+				 * (If the heuristic fail, it's not a problem, as later we won't be able to find code metrics for it; so we will never
+				 * store "bad data")
+				 */
+				String refactoredClassNameFromRMiner = pair.getRight();
+				if(isAnonymousClass(refactoredClassNameFromRMiner)) {
+					log.error("Refactoring in an anonymous class, which we skip: " + refactoredClassNameFromRMiner + ", commit = " + superCommitMetaData + ", refactoring = " + shortSummary(refactoringSummary));
+					continue;
+				}
+				ImmutablePair<String, String> refactoredClassName = new ImmutablePair<>(refactoredClassNameFromRMiner, classAliases.get(refactoredClassNameFromRMiner));
+				refactoredClasses.add(new RefactoredClass(refactoring, refactoringSummary, refactoredClassName, refactoredClassFile));
+			}
 		}
+		return refactoredClasses;
 	}
 
-	private void storeSourceCode(long id, Refactoring refactoring, RevCommit currentCommit) throws IOException {
-
-		RevCommit commitParent = currentCommit.getParent(0);
-
-		// for the before refactoring, we get its source code in the previous commit
-		for (ImmutablePair<String, String> pair : refactoring.getInvolvedClassesBeforeRefactoring()) {
-			String fileName = pair.getLeft();
-
+	//Calculate the CK metrics of all given files in the previous version in a single CK run, file versions already in the cache are not analyzed again
+	//Returns the CK results per file and adds the blob ids of the files to blobIds, files that could not be read from git are missing
+	private Map<String, List<CKClassResult>> calculateCkMetrics(CommitMetaData superCommitMetaData, Set<String> fileNames, Map<String, ObjectId> blobIds) {
+		String parentCommitId = superCommitMetaData.getParentCommitId();
+		Map<String, List<CKClassResult>> ckResults = new HashMap<>();
+		Map<String, String> sources = new LinkedHashMap<>();
+		for (String fileName : fileNames) {
 			try {
-				String sourceCode = readFileFromGit(repository, commitParent, fileName);
-				writeFile(fileStorageDir + id + "/before/" + fileNameOnly(fileName), sourceCode);
-			} catch(Exception e) {
-				log.error("Could not write raw source code for file before refactoring, id=" + id + ", file name=" + fileName + createRefactoringErrorState(currentCommit.getName(), project, refactoring.toString().trim()), e);
+				ObjectId blobId = gitContext.findBlobId(parentCommitId, fileName);
+				blobIds.put(fileName, blobId);
+				List<CKClassResult> cachedResults = ckCache.get(blobId);
+				if(cachedResults != null) {
+					ckResults.put(fileName, cachedResults);
+					continue;
+				}
+
+				/**
+				 * Now, we get the contents of the file in the previous version,
+				 * which we use to extract the features.
+				 */
+				sources.put(fileName, gitContext.readFile(blobId));
+			} catch(IOException e) {
+				/**
+				 * We could not open the file in the previous commit. This should not happen.
+				 */
+				log.error("Could not find (previous) version of " + fileName + " in parent commit " + parentCommitId + createErrorState(superCommitMetaData.getCommitId(), project), e);
 			}
 		}
 
-		// for the after refactoring, we get its source code in the current commit
-		for (ImmutablePair<String, String> pair : refactoring.getInvolvedClassesAfterRefactoring()) {
-			String fileName = pair.getLeft();
+		if(!sources.isEmpty()) {
+			Map<String, List<CKClassResult>> calculatedResults = new HashMap<>();
+			sources.keySet().forEach(fileName -> calculatedResults.put(fileName, new ArrayList<>()));
+			boolean completed = ckService.calculate(sources, superCommitMetaData.getCommitId(), project.getGitUrl(), ckUsage, ck -> {
+				synchronized (calculatedResults) {
+					calculatedResults.get(enforceUnixPaths(ck.getFile())).add(ck);
+				}
+			});
 
-			try {
-				String sourceCode = readFileFromGit(repository, currentCommit, fileName);
-				writeFile(fileStorageDir + id + "/after/" + fileNameOnly(fileName), sourceCode);
-			} catch(Exception e) {
-				log.error("Could not write raw source code for file after refactoring, id=" + id + ", file name=" + fileName + createRefactoringErrorState(currentCommit.getName(), project, refactoring.toString().trim()), e);
+			for (Map.Entry<String, List<CKClassResult>> results : calculatedResults.entrySet()) {
+				// only complete results are cached, a failed CK run is retried the next time
+				if(completed)
+					ckCache.put(blobIds.get(results.getKey()), results.getValue());
+				ckResults.put(results.getKey(), results.getValue());
 			}
 		}
+		return ckResults;
 	}
 
-	private RefactoringCommit calculateCkMetrics(ImmutablePair<String,String> refactoredClasses, CommitMetaData commitMetaData, Refactoring refactoring, String refactoringSummary) {
+	//Build the RefactoringCommit of the refactored class from the CK results of its file, returns null if the class was not found
+	//The class and method metrics are shared by all instances of the same file version, see the MetricRegistry
+	protected RefactoringCommit buildRefactoringCommitObject(CommitMetaData commitMetaData, RefactoredClass refactoredClass, ObjectId blobId, List<CKClassResult> ckResults, CommitBatch batch) {
+		// the file could not be read from git
+		if(ckResults == null)
+			return null;
+
+		Refactoring refactoring = refactoredClass.refactoring;
+		String refactoringSummary = refactoredClass.refactoringSummary;
+		ImmutablePair<String, String> refactoredClasses = refactoredClass.classNames;
 		final List<RefactoringCommit> refactorings = new ArrayList<>();
-		CKUtils.calculate(tempDir, commitMetaData.getCommitId(), project.getGitUrl(), ck -> {
+		for(CKClassResult ck : ckResults) {
 			String cleanedCkClassName = cleanCkClassName(ck.getClassName());
 
-			//Ignore all subclass callbacks from CK, that are not relevant in this case
+			//Ignore all subclass results from CK, that are not relevant in this case
 			if(!cleanedCkClassName.equals(refactoredClasses.getLeft()) && !cleanedCkClassName.equals(refactoredClasses.getRight())){
-				return;
+				continue;
 			}
 			// collect the class level metrics
-			ClassMetric classMetric = extractClassMetrics(ck);
+			ClassMetric classMetric = metricRegistry.classMetric(blobId, ck, batch);
 			MethodMetric methodMetrics = null;
 			VariableMetric variableMetrics = null;
 
@@ -199,10 +228,10 @@ public class RefactoringAnalyzer {
 					log.error("CK did not find the refactored method: " + fullRefactoredMethod + " for the refactoring type: " + refactoring.getName() +
 							" on class " + refactoredClasses.getLeft() + "/" + refactoredClasses.getRight()+
 							"\nAll methods found by CK: " + methods +  createRefactoringErrorState(commitMetaData.getCommitId(), project, refactoringSummary));
-					return;
+					continue;
 				} else {
 					CKMethodResult ckMethodResult = ckMethod.get();
-					methodMetrics = extractMethodMetrics(ckMethodResult);
+					methodMetrics = metricRegistry.methodMetric(blobId, ck, ckMethodResult, batch);
 
 					if(isVariableLevelRefactoring(refactoring)) {
 						String refactoredVariable = getRefactoredVariableOrAttribute(refactoring);
@@ -234,7 +263,7 @@ public class RefactoringAnalyzer {
 			RefactoringCommit refactoringCommit = new RefactoringCommit(
 					project,
 					commitMetaData,
-					enforceUnixPaths(ck.getFile()).replace(tempDir, ""),
+					refactoredClass.fileName,
 					cleanedCkClassName,
 					refactoring.getRefactoringType().getDisplayName(),
 					refactoringTypeInNumber(refactoring),
@@ -244,7 +273,7 @@ public class RefactoringAnalyzer {
 					variableMetrics,
 					fieldMetrics);
 			refactorings.add(refactoringCommit);
-		});
+		}
 
 		/**
 		 * It is possible that we did not find the class among the results of CK.
@@ -257,10 +286,55 @@ public class RefactoringAnalyzer {
 			log.error("CK did not find class " + refactoredClasses.getLeft() + "/" + refactoredClasses.getRight() + createRefactoringErrorState(commitMetaData.getCommitId(), project, refactoringSummary));
 		} else {
 			for (RefactoringCommit refactoringCommit : refactorings) {
-				db.persist(refactoringCommit);
+				batch.add(refactoringCommit);
 			}
 		}
 
 		return refactorings.isEmpty()? null : refactorings.get(0);
 	}
-}
\ No newline at end of file
+
+	private void storeSourceCode(long id, Refactoring refactoring, RevCommit currentCommit) {
+
+		RevCommit commitParent = currentCommit.getParent(0);
+
+		// for the before refactoring, we get its source code in the previous commit
+		for (ImmutablePair<String, String> pair : refactoring.getInvolvedClassesBeforeRefactoring()) {
+			String fileName = pair.getLeft();
+
+			try {
+				String sourceCode = gitContext.readFile(commitParent, fileName);
+				writeFile(fileStorageDir + id + "/before/" + fileNameOnly(fileName), sourceCode);
+			} catch(Exception e) {
+				log.error("Could not write raw source code for file before refactoring, id=" + id + ", file name=" + fileName + createRefactoringErrorState(currentCommit.getName(), project, refactoring.toString().trim()), e);
+			}
+		}
+
+		// for the after refactoring, we get its source code in the current commit
+		for (ImmutablePair<String, String> pair : refactoring.getInvolvedClassesAfterRefactoring()) {
+			String fileName = pair.getLeft();
+
+			try {
+				String sourceCode = gitContext.readFile(currentCommit, fileName);
+				writeFile(fileStorageDir + id + "/after/" + fileNameOnly(fileName), sourceCode);
+			} catch(Exception e) {
+				log.error("Could not write raw source code for file after refactoring, id=" + id + ", file name=" + fileName + createRefactoringErrorState(currentCommit.getName(), project, refactoring.toString().trim()), e);
+			}
+		}
+	}
+
+	//A class refactored by a refactoring, together with the file that contains it in the previous version
+	protected static class RefactoredClass {
+		private final Refactoring refactoring;
+		private final String refactoringSummary;
+		//name of the class from RefactoringMiner and its alias after the refactoring
+		private final ImmutablePair<String, String> classNames;
+		private final String fileName;
+
+		private RefactoredClass(Refactoring refactoring, String refactoringSummary, ImmutablePair<String, String> classNames, String fileName) {
+			this.refactoring = refactoring;
+			this.refactoringSummary = refactoringSummary;
+			this.classNames = classNames;
+			this.fileName = fileName;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package refactoringml;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.refactoringminer.api.GitHistoryRefactoringMiner;
+import org.refactoringminer.api.Refactoring;
+import org.refactoringminer.api.RefactoringHandler;
+import org.refactoringminer.rm1.GitHistoryRefactoringMinerImpl;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/*
+Runs RefactoringMiner on single commits and can be used by multiple threads at once.
+Every thread gets its own JGit repository and RefactoringMiner instance, as well as a new handler per commit,
+thus concurrent detections never share state.
+ */
+public class RefactoringDetector implements AutoCloseable {
+	//git directory of the repository to mine
+	private final File gitDir;
+	//timeout in seconds for the refactoring miner
+	private final int timeout;
+	//called if RefactoringMiner could not handle a commit
+	private final BiConsumer<String, Exception> exceptionHandler;
+
+	private final ThreadLocal<Worker> workers;
+	//all repositories opened by the workers, they are closed together with the detector
+	private final List<Repository> repositories = Collections.synchronizedList(new ArrayList<>());
+
+	public RefactoringDetector(Repository repository, int timeout, BiConsumer<String, Exception> exceptionHandler) {
+		this.gitDir = repository.getDirectory();
+		this.timeout = timeout;
+		this.exceptionHandler = exceptionHandler;
+		this.workers = ThreadLocal.withInitial(this::createWorker);
+	}
+
+	//Detect all refactorings of the given commit
+	//Returns null if RefactoringMiner timed out or could not handle the commit
+	public List<Refactoring> detect(String commitHash) {
+		Worker worker = workers.get();
+		DetectionHandler handler = new DetectionHandler();
+		worker.miner.detectAtCommit(worker.repository, commitHash, handler, timeout);
+		return handler.refactorings;
+	}
+
+	private Worker createWorker() {
+		try {
+			Repository repository = new FileRepositoryBuilder().setGitDir(gitDir).build();
+			repositories.add(repository);
+			return new Worker(repository, new GitHistoryRefactoringMinerImpl());
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open the repository " + gitDir + " for RefactoringMiner", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized (repositories) {
+			repositories.forEach(Repository::close);
+			repositories.clear();
+		}
+	}
+
+	private static class Worker {
+		private final Repository repository;
+		private final GitHistoryRefactoringMiner miner;
+
+		private Worker(Repository repository, GitHistoryRefactoringMiner miner) {
+			this.repository = repository;
+			this.miner = miner;
+		}
+	}
+
+	//Collects the refactorings of exactly one commit, they stay null if a timeout happened
+	private class DetectionHandler extends RefactoringHandler {
+		private volatile List<Refactoring> refactorings;
+
+		@Override
+		public void handle(String commitId, List<Refactoring> refactorings) {
+			this.refactorings = refactorings;
+		}
+
+		@Override
+		public void handleException(String commitId, Exception e) {
+			exceptionHandler.accept(commitId, e);
+		}
+	}
+}
@@ -4,6 +4,10 @@ import com.rabbitmq.client.*;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
@@ -20,9 +24,13 @@ public class RunImport {
 
 		String host = System.getenv("QUEUE_HOST");
 		String file = System.getenv("FILE_TO_IMPORT");
+		//split every project in this many shards, that are mined by different workers
+		String shardsEnv = System.getenv("SHARDS");
+		int shards = shardsEnv == null || shardsEnv.trim().isEmpty() ? 1 : Integer.parseInt(shardsEnv.trim());
 
 		System.out.println("Host: " + host);
 		System.out.println("File: " + file);
+		System.out.println("Shards: " + shards);
 
 		if(file.trim().isEmpty()) {
 			throw new IllegalArgumentException("The project list is empty: " + file);
@@ -39,10 +47,35 @@ public class RunImport {
 
 			List<String> lines = FileUtils.readLines(new File(file));
 			for(String line : lines) {
-				String message = line;
-				channel.basicPublish("", RunQueue.QUEUE_NAME, MessageProperties.PERSISTENT_TEXT_PLAIN, message.getBytes());
-				log.debug(" [x] Queue sent '" + message + "'");
+				if(shards <= 1) {
+					publish(channel, line);
+					continue;
+				}
+
+				// all shards have to split the same history, even if the project changes while it is mined
+				String head = resolveHead(line.split(",")[1]);
+				for(int shard = 0; shard < shards; shard++)
+					publish(channel, line + "," + shard + "," + shards + "," + head);
 			}
 		}
 	}
+
+	private static void publish(Channel channel, String message) throws IOException {
+		channel.basicPublish("", RunQueue.QUEUE_NAME, MessageProperties.PERSISTENT_TEXT_PLAIN, message.getBytes());
+		log.debug(" [x] Queue sent '" + message + "'");
+	}
+
+	//Get the current head commit of the remote repository
+	//If it is not available, every shard uses the head of the main branch at the time it is mined
+	private static String resolveHead(String gitUrl) {
+		try {
+			Ref head = Git.lsRemoteRepository().setRemote(gitUrl.trim()).callAsMap().get(Constants.HEAD);
+			if(head != null && head.getObjectId() != null)
+				return head.getObjectId().getName();
+		} catch (GitAPIException e) {
+			log.error("Could not resolve the head commit of " + gitUrl, e);
+		}
+		log.error("Shards of " + gitUrl + " are mined without a shared head commit.");
+		return "";
+	}
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.docker.DockerLookup;
 import refactoringml.db.Database;
 import refactoringml.db.HibernateConfig;
+import refactoringml.util.CKService;
 import refactoringml.util.PropertiesUtils;
 import java.io.File;
 import java.io.IOException;
@@ -26,6 +27,8 @@ public class RunQueue {
 
 	public final static String QUEUE_NAME = "refactoring";
 	private final Database db;
+	//runs the projects of this worker, possibly multiple at once
+	private final ProjectScheduler scheduler;
 	private String storagePath;
 	private String host;
 	private final boolean storeFullSourceCode;
@@ -43,6 +46,8 @@ public class RunQueue {
 		failedProjectsFile.getParentFile().mkdirs();
 
 		db = new Database(new HibernateConfig().getSessionFactory(url, user, pwd));
+		scheduler = new ProjectScheduler(Integer.parseInt(getProperty("concurrentProjects")),
+				Long.parseLong(getProperty("projectHeap")) * 1024 * 1024);
 		log.debug(toString());
 	}
 
@@ -62,28 +67,44 @@ public class RunQueue {
 	}
 
 	private void run() throws IOException, TimeoutException, InterruptedException {
+		// the journals of projects, that were mined by this worker before it crashed, are written to the database first
+		String journalPath = getProperty("journalPath");
+		if(journalPath != null && !journalPath.trim().isEmpty())
+			CommitSpool.replayLeftovers(new File(journalPath.trim()), db, Boolean.parseBoolean(getProperty("bulkLoad")),
+					Integer.parseInt(getProperty("writeBehindMaxEntities")));
+
 		ConnectionFactory factory = new ConnectionFactory();
 		factory.setHost(host);
 
 		while(true) {
+			// only take the next project from the queue, once it can start right away
+			scheduler.reserve();
+			boolean started = false;
 			log.debug("Fetching a new element from the rabbitmq queue...");
 			try (Connection connection = factory.newConnection();
 				 Channel channel = connection.createChannel()) {
 
 				GetResponse chResponse = channel.basicGet(QUEUE_NAME, true);
-				processResponse(chResponse, channel);
+				started = processResponse(chResponse, channel);
+			} finally {
+				// give the slot back, if no project was started in it, e.g. because the queue was not reachable
+				if(!started)
+					scheduler.release();
 			}
 		}
 	}
 
-	private void processResponse(GetResponse chResponse, Channel channel) throws InterruptedException, IOException {
+	//Returns true if a project was started in the reserved slot
+	private boolean processResponse(GetResponse chResponse, Channel channel) throws InterruptedException, IOException {
 		if (chResponse != null && !chResponse.getEnvelope().isRedeliver()) {
 			String message = new String(chResponse.getBody());
 			log.debug("Got a new element from rabbitmq queue: " + message);
-			processRepository(message);
-		} else {
-			handleQueueError(chResponse, channel);
+			scheduler.run(() -> processRepository(message));
+			return true;
 		}
+
+		handleQueueError(chResponse, channel);
+		return false;
 	}
 
 	private void handleQueueError(GetResponse chResponse, Channel channel) throws InterruptedException, IOException {
@@ -111,34 +132,57 @@ public class RunQueue {
 		//shutdown the connection with the rabbit queue
 		if (channel != null && channel.isOpen())
 			channel.getConnection().close();
+		//let the projects, that are still mined, finish
+		scheduler.close();
 		//shutdown the connection with the MYSQL database
 		db.shutdown();
 		//end the worker
 		System.exit(0);
 	}
 
-	private void processRepository(String message) throws IOException {
+	//Mine the project of the message, runs on a thread of the scheduler
+	//the projects share the database, as every transaction runs in its own unit of work
+	private void processRepository(String message) {
 		log.debug("Got a new element from rabbitmq queue: " + message);
 
 		String[] msg = message.split(",");
 		String dataset = msg[2];
 		String gitUrl = msg[1];
-		String projectInfo = gitUrl + ", " + dataset;
-		appendToFile(failedProjectsFile, projectInfo + "\n");
+		//sharded projects carry the shard index, the shard count and the head commit shared by all shards, see RunImport
+		Shard shard = msg.length > 4 ? new Shard(Integer.parseInt(msg[3].trim()), Integer.parseInt(msg[4].trim()), msg.length > 5 ? msg[5] : null) : null;
+		String projectInfo = gitUrl + ", " + dataset + (shard == null ? "" : ", " + shard.getIndex() + "/" + shard.getCount());
+		updateFailedProjects(() -> appendToFile(failedProjectsFile, projectInfo + "\n"));
 		try {
-			new App(dataset, gitUrl, storagePath, db, storeFullSourceCode).run();
+			new App(dataset, gitUrl, storagePath, db, shard, storeFullSourceCode).run();
 		} catch (org.eclipse.jgit.api.errors.TransportException te){
 			storeFailedProject(gitUrl, "Repository not available", te);
 		} catch (Exception e) {
 			log.fatal(e.getClass().getCanonicalName() + " while processing " + gitUrl, e);
 			storeFailedProject(gitUrl, e.getClass().getCanonicalName(), e);
 		}
-		removeFromFile(failedProjectsFile, projectInfo);
+		updateFailedProjects(() -> removeFromFile(failedProjectsFile, projectInfo));
+		//the CK service is shared by all projects of this worker, the project statistics only contain its own runs
+		log.info(CKService.getInstance().statistics());
 	}
 
-	private void storeFailedProject(String gitUrl, String failureReason, Exception exception) throws IOException {
+	private void storeFailedProject(String gitUrl, String failureReason, Exception exception) {
 		String failedProject = gitUrl + ", " + failureReason + ", " + exception.toString()  + "\n";
-		appendToFile(failedProjectsFile, failedProject);
+		updateFailedProjects(() -> appendToFile(failedProjectsFile, failedProject));
+	}
+
+	//The failed projects file is shared by all projects mined at the same time
+	private void updateFailedProjects(FileUpdate update) {
+		synchronized (failedProjectsFile) {
+			try {
+				update.run();
+			} catch (IOException e) {
+				log.error("Could not update the failed projects file: " + failedProjectsFile.getAbsolutePath(), e);
+			}
+		}
+	}
+
+	private interface FileUpdate {
+		void run() throws IOException;
 	}
 
 	@Override
@@ -149,7 +193,8 @@ public class RunQueue {
 				"failedProjectsFile=" + failedProjectsFile.getAbsolutePath() + "\n" +
 				"host = " + host + "\n" +
 				"storagePath = " + storagePath + "\n" +
-				"storeFullSourceCode = " + storeFullSourceCode +
+				"storeFullSourceCode = " + storeFullSourceCode + "\n" +
+				"concurrentProjects = " + scheduler.getSlots() + "\n" +
 				"db = " + db.toString() + "}";
 	}
 }
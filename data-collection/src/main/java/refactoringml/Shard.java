@@ -0,0 +1,54 @@
+package refactoringml;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import java.util.List;
+
+/*
+One part of the history of a project, so that multiple workers can mine a single huge project at the same time.
+The commits to process are split into count consecutive ranges of the same size, this shard mines the range at index.
+All shards of a project have to agree on the same head commit, otherwise the ranges might overlap or miss commits.
+ */
+public class Shard {
+	//position of this shard, starting with 0
+	private final int index;
+	//total number of shards of the project
+	private final int count;
+	//the last commit of the history to split, null to use the head of the main branch
+	private final String headCommit;
+
+	public Shard(int index, int count, String headCommit) {
+		if(count < 1 || index < 0 || index >= count)
+			throw new IllegalArgumentException("Invalid shard " + index + " of " + count);
+
+		this.index = index;
+		this.count = count;
+		this.headCommit = headCommit == null || headCommit.trim().isEmpty() ? null : headCommit.trim();
+	}
+
+	public int getIndex() { return index; }
+
+	public int getCount() { return count; }
+
+	public String getHeadCommit() { return headCommit; }
+
+	//Select the first and the last commit of this shard, out of all commits to process in the order they are processed
+	//Returns null if this shard has no commits, i.e. if there are less commits than shards
+	public ImmutablePair<String, String> selectRange(List<String> commits) {
+		int shardSize = (commits.size() + count - 1) / count;
+		int first = index * shardSize;
+		if(first >= commits.size())
+			return null;
+
+		int last = Math.min(commits.size(), first + shardSize) - 1;
+		return new ImmutablePair<>(commits.get(first), commits.get(last));
+	}
+
+	@Override
+	public String toString() {
+		return "Shard{" +
+				"index=" + index +
+				", count=" + count +
+				", headCommit='" + headCommit + '\'' +
+				'}';
+	}
+}
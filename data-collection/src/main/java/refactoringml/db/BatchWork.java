@@ -0,0 +1,25 @@
+package refactoringml.db;
+
+/*
+A transaction, that writes the entities of mined commits to the database.
+Implemented by the UnitOfWork, which persists them with Hibernate, and the BulkUnitOfWork, which inserts their rows directly.
+ */
+public interface BatchWork extends AutoCloseable {
+	//Write all entities of a mined commit
+	void persist(CommitBatch batch);
+
+	//Move the journal checkpoint of the project to the sequence of the written record, in the same transaction
+	void checkpoint(long projectId, long sequence);
+
+	//Number of entities written or loaded by this transaction so far
+	int getEntityCount();
+
+	void commit();
+
+	//safely rollback the transaction
+	void rollback(String logExtension);
+
+	//A transaction, that was neither committed nor rolled back, is rolled back
+	@Override
+	void close();
+}
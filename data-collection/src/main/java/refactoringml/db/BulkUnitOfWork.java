@@ -0,0 +1,211 @@
+package refactoringml.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/*
+A single transaction, that inserts the entities of mined commits with multi-row inserts, obtained from Database.beginBulkWork.
+The mined data is only inserted, never updated, thus the entity lifecycle of Hibernate is skipped:
+no persistence context, no dirty checking and no cascades resolved per entity.
+The inserts are built from the metadata Hibernate has about the mapped entities, so the rows and the schema are the same as with a UnitOfWork.
+All entities get their ids from the PooledIdGenerator of their table before anything is written, from the same id ranges the UnitOfWork uses,
+thus the foreign keys of every row are known upfront.
+Associated entities without an id, e.g. the metrics of an instance, are inserted before the entities that reference them, like the cascades of the UnitOfWork.
+Every thread needs its own bulk unit of work.
+ */
+public class BulkUnitOfWork implements BatchWork {
+	private static final Logger log = LogManager.getLogger(BulkUnitOfWork.class);
+
+	private final SessionFactoryImplementor sf;
+	//session that provides the connection, the transaction and the id generators, no entity is attached to it
+	private final Session session;
+	//max number of rows in a single insert statement
+	private final int rowsPerInsert;
+	//the transaction was either committed or rolled back
+	private boolean finished = false;
+	//number of rows inserted so far
+	private int insertedRows = 0;
+
+	BulkUnitOfWork(SessionFactory sf, int rowsPerInsert) {
+		if (rowsPerInsert <= 0)
+			throw new IllegalArgumentException("The number of rows per insert must be positive: " + rowsPerInsert);
+		this.sf = (SessionFactoryImplementor) sf;
+		this.rowsPerInsert = rowsPerInsert;
+		this.session = sf.openSession();
+		session.beginTransaction();
+	}
+
+	//Insert all entities of a mined commit and the associated entities without an id
+	@Override
+	public void persist(CommitBatch batch) {
+		// check the references before any new entity gets its id
+		Set<Long> existingCommitMetaData = findExistingCommitMetaData(batch);
+		List<Object> entities = batch.getEntities().stream()
+				.filter(entity -> !(entity instanceof Instance) || commitMetaDataExists((Instance) entity, existingCommitMetaData))
+				.collect(Collectors.toList());
+
+		// the entities to insert per table, the tables referenced by other tables come first
+		Map<AbstractEntityPersister, List<Object>> tables = new LinkedHashMap<>();
+		Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Object entity : entities)
+			collect(entity, tables, visited);
+
+		session.doWork(connection -> {
+			for (Map.Entry<AbstractEntityPersister, List<Object>> table : tables.entrySet())
+				insert(connection, table.getKey(), table.getValue());
+		});
+	}
+
+	//Commit meta data with an id was persisted in an earlier transaction, an instance can only reference it, if it still exists.
+	//Returns the ids of all referenced commit meta data, which exist in the database.
+	private Set<Long> findExistingCommitMetaData(CommitBatch batch) {
+		Set<Long> ids = batch.getEntities().stream()
+				.filter(entity -> entity instanceof Instance && ((Instance) entity).getCommitMetaData() != null)
+				.map(entity -> ((Instance) entity).getCommitMetaData().getId())
+				.filter(id -> id != 0)
+				.collect(Collectors.toSet());
+		if (ids.isEmpty())
+			return ids;
+
+		return new HashSet<>(session.createQuery("select c.id from CommitMetaData c where c.id in :ids", Long.class)
+				.setParameterList("ids", ids)
+				.list());
+	}
+
+	private boolean commitMetaDataExists(Instance instance, Set<Long> existingCommitMetaData) {
+		CommitMetaData commitMetaData = instance.getCommitMetaData();
+		if (commitMetaData == null || commitMetaData.getId() == 0 || existingCommitMetaData.contains(commitMetaData.getId()))
+			return true;
+
+		log.error("Commit meta data " + commitMetaData.getCommitId() + " was not found in the database, skipping the instance of class " + instance.getClassName());
+		return false;
+	}
+
+	//Collect the entity and its associated entities without an id, the associated entities first, and assign their ids
+	private void collect(Object entity, Map<AbstractEntityPersister, List<Object>> tables, Set<Object> visited) {
+		if (entity == null || !visited.add(entity))
+			return;
+
+		AbstractEntityPersister persister = persister(entity);
+		SharedSessionContractImplementor sessionImplementor = (SharedSessionContractImplementor) session;
+		if (((Number) persister.getIdentifier(entity, sessionImplementor)).longValue() != 0)
+			return;
+
+		Type[] types = persister.getPropertyTypes();
+		Object[] values = persister.getPropertyValues(entity);
+		for (int i = 0; i < types.length; i++) {
+			if (types[i].isEntityType())
+				collect(values[i], tables, visited);
+		}
+
+		Serializable id = persister.getIdentifierGenerator().generate(sessionImplementor, entity);
+		persister.setIdentifier(entity, id, sessionImplementor);
+		tables.computeIfAbsent(persister, key -> new ArrayList<>()).add(entity);
+	}
+
+	//Insert the rows of all entities of the table, with up to rowsPerInsert rows per statement
+	private void insert(Connection connection, AbstractEntityPersister persister, List<Object> entities) throws SQLException {
+		SharedSessionContractImplementor sessionImplementor = (SharedSessionContractImplementor) session;
+		Type[] types = persister.getPropertyTypes();
+		boolean[] insertable = insertableProperties(persister);
+
+		for (int from = 0; from < entities.size(); from += rowsPerInsert) {
+			List<Object> rows = entities.subList(from, Math.min(entities.size(), from + rowsPerInsert));
+			try (PreparedStatement statement = connection.prepareStatement(insertSql(persister, rows.size()))) {
+				int index = 1;
+				for (Object entity : rows) {
+					persister.getIdentifierType().nullSafeSet(statement, persister.getIdentifier(entity, sessionImplementor), index, sessionImplementor);
+					index += persister.getIdentifierColumnNames().length;
+					Object[] values = persister.getPropertyValues(entity);
+					for (int i = 0; i < types.length; i++) {
+						if (!insertable[i])
+							continue;
+						types[i].nullSafeSet(statement, values[i], index, sessionImplementor);
+						index += persister.getPropertyColumnNames(i).length;
+					}
+				}
+				statement.executeUpdate();
+			}
+			insertedRows += rows.size();
+		}
+	}
+
+	//A multi-row insert into the table of the persister with the identifier and all insertable columns
+	private static String insertSql(AbstractEntityPersister persister, int rows) {
+		List<String> columns = new ArrayList<>(Arrays.asList(persister.getIdentifierColumnNames()));
+		boolean[] insertable = insertableProperties(persister);
+		for (int i = 0; i < insertable.length; i++) {
+			if (insertable[i])
+				columns.addAll(Arrays.asList(persister.getPropertyColumnNames(i)));
+		}
+
+		String row = columns.stream().map(column -> "?").collect(Collectors.joining(", ", "(", ")"));
+		return "insert into " + persister.getTableName() + " (" + String.join(", ", columns) + ") values " +
+				String.join(", ", Collections.nCopies(rows, row));
+	}
+
+	//Properties with columns in the table of the persister, collections are stored in their own tables
+	private static boolean[] insertableProperties(AbstractEntityPersister persister) {
+		boolean[] insertable = persister.getPropertyInsertability().clone();
+		Type[] types = persister.getPropertyTypes();
+		for (int i = 0; i < insertable.length; i++)
+			insertable[i] &= !types[i].isCollectionType() && persister.getPropertyColumnNames(i).length > 0;
+		return insertable;
+	}
+
+	private AbstractEntityPersister persister(Object entity) {
+		return (AbstractEntityPersister) sf.getMetamodel().entityPersister(entity.getClass());
+	}
+
+	@Override
+	public void checkpoint(long projectId, long sequence) {
+		session.doWork(connection -> JournalCheckpoint.save(connection, projectId, sequence));
+	}
+
+	@Override
+	public int getEntityCount() {
+		return insertedRows;
+	}
+
+	@Override
+	public void commit() {
+		session.getTransaction().commit();
+		finished = true;
+	}
+
+	@Override
+	public void rollback(String logExtension) {
+		finished = true;
+		try {
+			if (session.isOpen() && session.getTransaction() != null && session.getTransaction().isActive())
+				session.getTransaction().rollback();
+		} catch (RuntimeException e) {
+			log.error("Failed to rollback the bulk insert." + logExtension, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (!session.isOpen())
+				return;
+			if (!finished && session.getTransaction() != null && session.getTransaction().isActive())
+				session.getTransaction().rollback();
+			session.close();
+		} catch(Exception e) {
+			log.error("Error when closing the connection to the Database: ", e);
+		}
+	}
+}
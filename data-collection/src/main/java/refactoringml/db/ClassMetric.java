@@ -1,12 +1,15 @@
 package refactoringml.db;
 
+import org.hibernate.annotations.GenericGenerator;
+
 import javax.persistence.*;
 
 @Entity
 @Table(name = "ClassMetric")
 public class ClassMetric {
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(generator = PooledIdGenerator.NAME)
+	@GenericGenerator(name = PooledIdGenerator.NAME, strategy = PooledIdGenerator.STRATEGY)
 	private long id;
 
 	private boolean isInnerClass;
@@ -105,6 +108,8 @@ public class ClassMetric {
 		this.classUniqueWordsQty = classUniqueWordsQty;
 	}
 
+	public long getId() { return id; }
+
 	@Override
 	public String toString() {
 		return "ClassMetric{" +
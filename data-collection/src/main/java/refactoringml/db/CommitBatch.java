@@ -0,0 +1,38 @@
+package refactoringml.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//All entities collected while mining a single commit, they are persisted together in one transaction
+public class CommitBatch {
+	//entities to persist, in the order they were collected
+	private List<Object> entities = new ArrayList<>();
+	//actions that need the generated ids of the entities, e.g. storing the source code of a refactoring
+	private List<Runnable> afterPersistActions = new ArrayList<>();
+	//entities referenced by several entities of this batch, e.g. the metrics of a class version
+	private Map<String, Object> sharedEntities = new HashMap<>();
+
+	public void add(Object entity) {
+		entities.add(entity);
+	}
+
+	//Run the given action once all entities of this batch were persisted
+	public void afterPersist(Runnable action) {
+		afterPersistActions.add(action);
+	}
+
+	//Returns the entity shared under the key in this batch, or null if there is none yet
+	public Object getShared(String key) { return sharedEntities.get(key); }
+
+	public void putShared(String key, Object entity) { sharedEntities.put(key, entity); }
+
+	public List<Object> getEntities() { return entities; }
+
+	public List<Runnable> getAfterPersistActions() { return afterPersistActions; }
+
+	public boolean isEmpty() { return entities.isEmpty(); }
+
+	public int size() { return entities.size(); }
+}
@@ -0,0 +1,109 @@
+package refactoringml.db;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/*
+Append-only file of the records of a CommitSpool, one JSON object per line.
+A record is forced to the disk before append returns, thus it survives a crash of the worker.
+A crash while appending can leave an incomplete last line behind, it is never read.
+A failed append, e.g. on a full disk, removes its partial record again, so the journal stays readable for the records appended after it.
+The records can be read in the order they were appended, while more records are appended, by a single reader.
+ */
+public class CommitJournal implements AutoCloseable {
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private final ObjectMapper mapper = new ObjectMapper();
+	//opened with the first append
+	private FileChannel output;
+	//opened with the first read
+	private RandomAccessFile input;
+	//position of the first record not read yet
+	private long readOffset = 0;
+
+	public CommitJournal(File file) {
+		this.file = file;
+	}
+
+	public synchronized void append(JsonNode record) throws IOException {
+		if (output == null) {
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			output = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+		ByteBuffer bytes = ByteBuffer.wrap((mapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8));
+		long size = output.size();
+		try {
+			while (bytes.hasRemaining())
+				output.write(bytes);
+			output.force(false);
+		} catch (IOException e) {
+			// remove the partial record, e.g. of a full disk, otherwise the next record would be appended to it
+			try {
+				output.truncate(size);
+			} catch (IOException truncateFailure) {
+				e.addSuppressed(truncateFailure);
+			}
+			throw e;
+		}
+	}
+
+	//The next complete record, or null if none was appended yet
+	public JsonNode next() throws IOException {
+		if (input == null) {
+			if (!file.exists())
+				return null;
+			input = new RandomAccessFile(file, "r");
+		}
+		if (readOffset >= input.length())
+			return null;
+
+		input.seek(readOffset);
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		byte[] buffer = new byte[READ_BUFFER_SIZE];
+		int read;
+		while ((read = input.read(buffer)) > 0) {
+			for (int i = 0; i < read; i++) {
+				if (buffer[i] == '\n') {
+					line.write(buffer, 0, i);
+					readOffset += line.size() + 1;
+					return mapper.readTree(line.toByteArray());
+				}
+			}
+			line.write(buffer, 0, read);
+		}
+		return null;
+	}
+
+	//Are there bytes behind the last complete record, e.g. of a record whose append crashed
+	public boolean hasIncompleteRecord() {
+		return file.length() > readOffset;
+	}
+
+	public File getFile() { return file; }
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (output != null)
+			output.close();
+		if (input != null)
+			input.close();
+		output = null;
+		input = null;
+	}
+
+	//Close and remove the journal, once all its records are in the database
+	public void delete() throws IOException {
+		close();
+		Files.deleteIfExists(file.toPath());
+	}
+}
@@ -1,6 +1,7 @@
 package refactoringml.db;
 
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.hibernate.annotations.GenericGenerator;
 import refactoringml.util.JGitUtils;
 
 import javax.persistence.*;
@@ -8,10 +9,11 @@ import java.util.Calendar;
 import java.util.GregorianCalendar;
 
 @Entity
-@Table(name = "CommitMetaData")
+@Table(name = "CommitMetaData", indexes = {@Index(columnList = "commitId, project_id")})
 public class CommitMetaData {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = PooledIdGenerator.NAME)
+    @GenericGenerator(name = PooledIdGenerator.NAME, strategy = PooledIdGenerator.STRATEGY)
     private long id;
 
     //use the unique commit hash to relate from Yes and No to this one
@@ -35,6 +37,10 @@ public class CommitMetaData {
     // (we calculate the metrics in the version of file *before* the refactoring)
     private String parentCommitId;
 
+    //project the commit was mined for, the same commit can be mined for several projects, e.g. forks
+    @ManyToOne
+    private Project project;
+
     @Deprecated // hibernate purposes
     public CommitMetaData() {this.commitId = "";}
 
@@ -53,6 +59,7 @@ public class CommitMetaData {
         this.commitMessage = commit.getFullMessage().trim();
         this.commitUrl = JGitUtils.generateCommitUrl(project.getGitUrl(), commitId, project.isLocal());
         this.parentCommitId = commit.getParentCount() == 0 ? "Null" : commit.getParent(0).getName().trim();
+        this.project = project;
     }
 
     public String getCommitUrl (){return commitUrl;}
@@ -1,80 +1,56 @@
 package refactoringml.db;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.hibernate.TransactionException;
-import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
-import java.sql.Connection;
-import java.sql.SQLException;
 
+import static refactoringml.util.PropertiesUtils.getProperty;
+
+/*
+Entry point to the database, it can be shared by all threads and projects of this JVM.
+Transactions are handled by units of work, every caller gets its own one from beginWork.
+The mined entities can also be written by a bulk unit of work from beginBulkWork, which bypasses the entity lifecycle of Hibernate.
+ */
 public class Database {
 	private SessionFactory sf;
-	private Session session;
-
-	private static final Logger log = LogManager.getLogger(Database.class);
 
 	public Database(SessionFactory sf) {
 		this.sf = sf;
 	}
 
-	public void openSession() {
-		// if there's an open session, let's close it first.
-		// this should not happen, though, only due to bad logic
-		if(this.session!=null) {
-			log.error("Session is open, but we are opening another one!");
-			close();
-		}
+	//Start a new transaction with its own session, the caller has to close it
+	public UnitOfWork beginWork() {
+		return new UnitOfWork(sf);
+	}
+
+	//Start a new transaction, that inserts the mined entities directly with multi-row inserts, the caller has to close it
+	public BulkUnitOfWork beginBulkWork() {
+		return new BulkUnitOfWork(sf, Integer.parseInt(getProperty("jdbcBatchSize")));
+	}
 
-		this.session = sf.openSession();
-		session.beginTransaction();
+	//Converts the mined entities to the records of a CommitJournal and back
+	public EntityCodec createEntityCodec() {
+		return new EntityCodec(sf);
 	}
 
 	//shutdown the session factory and all connections
 	public void shutdown(){
-		close();
 		sf.close();
 		sf = null;
 	}
 
-	public void commit() {
-		this.session.getTransaction().commit();
-	}
-
-	public void persist(Object obj) {
-		session.persist(obj);
-	}
-
 	//Handles all the logic to persist an object to the database
 	public void persistComplete(Object obj){
-		openSession();
-		persist(obj);
-		commit();
-		close();
+		try (UnitOfWork work = beginWork()) {
+			work.persist(obj);
+			work.commit();
+		}
 	}
 
 	//Handles all the logic to update an object to the database
 	public void updateComplete(Object obj){
-		openSession();
-		update(obj);
-		commit();
-		close();
-	}
-
-	public void update(Object obj) {
-		session.update(obj);
-	}
-
-	public void close() {
-		try {
-			if (session != null)
-				session.close();
-		} catch(Exception e) {
-			// what to do? this really shouldn't happen.
-			log.error("Error when closing the connection to the Database: ", e);
-		} finally {
-			this.session = null;
+		try (UnitOfWork work = beginWork()) {
+			work.update(obj);
+			work.commit();
 		}
 	}
 
@@ -88,6 +64,45 @@ public class Database {
 		return exists;
 	}
 
+	//A shard of a project exists, if either the whole project or the same shard of it is in the database
+	//projects mined before the sharding was introduced have a shardCount of 0
+	public boolean projectExists(String gitUrl, int shardIndex, int shardCount) {
+		if(shardCount <= 1)
+			return projectExists(gitUrl);
+
+		Session shortSession = sf.openSession();
+		boolean exists = shortSession.createQuery("from Project p where p.gitUrl = :gitUrl and " +
+				"(p.shardCount <= 1 or (p.shardIndex = :shardIndex and p.shardCount = :shardCount))")
+				.setParameter("gitUrl", gitUrl)
+				.setParameter("shardIndex", shardIndex)
+				.setParameter("shardCount", shardCount)
+				.list().size() > 0;
+		shortSession.close();
+
+		return exists;
+	}
+
+	//Sequence of the last journal record of the project, that was written to the database, 0 if there is none
+	public long findJournalCheckpoint(long projectId) {
+		Session shortSession = sf.openSession();
+		JournalCheckpoint checkpoint = shortSession.get(JournalCheckpoint.class, projectId);
+		shortSession.close();
+
+		return checkpoint == null ? 0 : checkpoint.getLastSequence();
+	}
+
+	//Id of the commit meta data of the commit mined for the project, 0 if there is none
+	public long findCommitMetaDataId(long projectId, String commitId) {
+		Session shortSession = sf.openSession();
+		Long id = shortSession.createQuery("select min(c.id) from CommitMetaData c where c.commitId = :commitId and c.project.id = :projectId", Long.class)
+				.setParameter("commitId", commitId)
+				.setParameter("projectId", projectId)
+				.getSingleResult();
+		shortSession.close();
+
+		return id == null ? 0 : id;
+	}
+
 	public long findAllRefactoringCommits(long projectId) { return findAllInstances("RefactoringCommit", projectId); }
 
 	public long findAllStableCommits(long projectId) { return findAllInstances("StableCommit", projectId); }
@@ -107,43 +122,4 @@ public class Database {
 		shortSession.close();
 		return Long.parseLong(result.toString());
 	}
-
-	//safely rollback a transaction with the db
-	public void rollback(String logExtension) {
-		//this session object itself should never be null, thus we don't check for it
-		//nothing to do in this case, recovering the session or transaction is to much effort and the db takes care of a failed transaction
-		if(!session.isOpen()) {
-			log.error("Session was already closed during attempted rollback: Doing Nothing." + logExtension);
-			return;
-		}
-
-		if(!session.isConnected()){
-			try{
-				Connection connection =	sf.getSessionFactoryOptions().getServiceRegistry().
-						getService(ConnectionProvider.class).getConnection();
-				session.reconnect(connection);
-			} catch (SQLException e) {
-				log.error("Failed to reconnect session object." + logExtension, e);
-			}
-		}
-
-		//standard case for a rollback
-		if(session.isConnected() && session.getTransaction() != null) {
-			try{
-				session.getTransaction().rollback();
-				return;
-			} catch (TransactionException e) {
-				log.error("Failed to rollback session: " + session.toString() + logExtension, e);
-			}
-		} else {
-			//other cases:
-			//1. not connected to the DB : we could raise an error here, because something is probably wrong with the db
-			//2. connected but no transaction object : nothing to do
-			log.error("Session is in a bad state: " + session.toString() + logExtension);
-		}
-	}
-
-	public CommitMetaData loadCommitMetaData(long id) {
-		return session.get(CommitMetaData.class, id);
-	}
-}
\ No newline at end of file
+}
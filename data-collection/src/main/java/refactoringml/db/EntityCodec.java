@@ -0,0 +1,197 @@
+package refactoringml.db;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/*
+Converts the entities of a commit batch to a JSON record of the CommitJournal and back, obtained from Database.createEntityCodec.
+The conversion is built from the metadata Hibernate has about the mapped entities, like the inserts of the BulkUnitOfWork,
+so the entities need no JSON mapping of their own.
+An entity without an id is written with all its properties, the entities it references are written before it and referenced by their position in the record.
+An entity with an id, e.g. the project, was persisted before and is only referenced by its id.
+An entity that was already written by an earlier record, e.g. the commit meta data of a stable instance, is written again together with its position in the journal.
+The decoded record references the row of the earlier record, the Resolver of the decoder finds its id.
+ */
+public class EntityCodec {
+	private final SessionFactoryImplementor sf;
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	EntityCodec(SessionFactory sf) {
+		this.sf = (SessionFactoryImplementor) sf;
+	}
+
+	//The record of a batch and the written entities in the order of their position in the record
+	public static class Encoded {
+		private final ObjectNode record;
+		private final List<Object> entities;
+
+		private Encoded(ObjectNode record, List<Object> entities) {
+			this.record = record;
+			this.entities = entities;
+		}
+
+		public ObjectNode getRecord() { return record; }
+
+		public List<Object> getEntities() { return entities; }
+	}
+
+	//The batch decoded from a record and the entity for every position in the record, either the decoded one or the reference to an earlier row
+	public static class Decoded {
+		private final CommitBatch batch;
+		private final List<Object> entities;
+
+		private Decoded(CommitBatch batch, List<Object> entities) {
+			this.batch = batch;
+			this.entities = entities;
+		}
+
+		public CommitBatch getBatch() { return batch; }
+
+		public List<Object> getEntities() { return entities; }
+	}
+
+	//Finds the row written for an entity of an earlier record
+	public interface Resolver {
+		//journalPosition is the position of the entity in the journal, entity is decoded from the current record with all its properties
+		//Returns the id of the row, or null if the entity is inserted again, fails if the row is not known
+		Long resolve(String journalPosition, Object entity) throws Exception;
+	}
+
+	//Write all entities of the batch without an id into a record
+	//journaled returns the journal position of an entity written by an earlier record, or null
+	public Encoded encode(CommitBatch batch, Function<Object, String> journaled) {
+		List<Object> entities = new ArrayList<>();
+		Map<Object, Integer> positions = new IdentityHashMap<>();
+		ArrayNode nodes = mapper.createArrayNode();
+		ArrayNode roots = mapper.createArrayNode();
+		for (Object entity : batch.getEntities())
+			roots.add(write(entity, positions, entities, nodes, journaled));
+
+		ObjectNode record = mapper.createObjectNode();
+		record.set("roots", roots);
+		record.set("entities", nodes);
+		return new Encoded(record, entities);
+	}
+
+	//Write the entity after the entities it references, returns the reference to the entity
+	private JsonNode write(Object entity, Map<Object, Integer> positions, List<Object> entities, ArrayNode nodes, Function<Object, String> journaled) {
+		if (entity == null)
+			return NullNode.getInstance();
+
+		AbstractEntityPersister persister = persister(entity);
+		long id = getId(persister, entity);
+		if (id != 0)
+			return mapper.createObjectNode().put("entity", persister.getEntityName()).put("id", id);
+		Integer position = positions.get(entity);
+		if (position != null)
+			return mapper.createObjectNode().put("ref", position);
+
+		String[] names = persister.getPropertyNames();
+		Type[] types = persister.getPropertyTypes();
+		Object[] values = persister.getPropertyValues(entity);
+		ObjectNode properties = mapper.createObjectNode();
+		for (int i = 0; i < types.length; i++) {
+			if (types[i].isCollectionType())
+				continue;
+			properties.set(names[i], types[i].isEntityType() ? write(values[i], positions, entities, nodes, journaled) : mapper.valueToTree(values[i]));
+		}
+
+		position = entities.size();
+		positions.put(entity, position);
+		entities.add(entity);
+		ObjectNode node = nodes.addObject().put("ref", position).put("entity", persister.getEntityName());
+		String journalPosition = journaled.apply(entity);
+		if (journalPosition != null)
+			node.put("journaled", journalPosition);
+		node.set("properties", properties);
+		return mapper.createObjectNode().put("ref", position);
+	}
+
+	//Create the entities of a record, all of them without an id, unless the resolver knows the row of an earlier record
+	public Decoded decode(JsonNode record, Resolver resolver) throws Exception {
+		List<Object> entities = new ArrayList<>();
+		for (JsonNode node : record.get("entities")) {
+			AbstractEntityPersister persister = persister(node.get("entity").asText());
+			Object entity = persister.getEntityTuplizer().instantiate();
+			String[] names = persister.getPropertyNames();
+			Type[] types = persister.getPropertyTypes();
+			// properties missing in the record keep the defaults of the entity
+			Object[] values = persister.getPropertyValues(entity);
+			JsonNode properties = node.get("properties");
+			for (int i = 0; i < types.length; i++) {
+				JsonNode value = properties.get(names[i]);
+				if (value == null)
+					continue;
+				Class<?> type = types[i].getReturnedClass();
+				values[i] = types[i].isEntityType() ? read(value, entities) : mapper.treeToValue(value, type);
+			}
+			persister.setPropertyValues(entity, values);
+
+			if (node.has("journaled")) {
+				Long id = resolver.resolve(node.get("journaled").asText(), entity);
+				if (id != null)
+					entity = reference(persister, id);
+			}
+			entities.add(entity);
+		}
+
+		CommitBatch batch = new CommitBatch();
+		for (JsonNode root : record.get("roots"))
+			batch.add(read(root, entities));
+		return new Decoded(batch, entities);
+	}
+
+	private Object read(JsonNode reference, List<Object> entities) {
+		if (reference.isNull())
+			return null;
+		if (reference.has("ref"))
+			return entities.get(reference.get("ref").asInt());
+		return reference(persister(reference.get("entity").asText()), reference.get("id").asLong());
+	}
+
+	//An entity with only the id set, that references an existing row, like the detached entities of earlier transactions
+	private Object reference(AbstractEntityPersister persister, long id) {
+		Object entity = persister.getEntityTuplizer().instantiate();
+		persister.setIdentifier(entity, id, (SharedSessionContractImplementor) null);
+		return entity;
+	}
+
+	//Copy the ids of the persisted entities to the entities at the same positions, which do not have one yet
+	public void copyIds(List<Object> from, List<Object> to) {
+		for (int i = 0; i < from.size() && i < to.size(); i++) {
+			AbstractEntityPersister persister = persister(to.get(i));
+			long id = getId(from.get(i));
+			if (id != 0 && getId(persister, to.get(i)) == 0)
+				persister.setIdentifier(to.get(i), id, (SharedSessionContractImplementor) null);
+		}
+	}
+
+	public long getId(Object entity) {
+		return getId(persister(entity), entity);
+	}
+
+	private static long getId(AbstractEntityPersister persister, Object entity) {
+		return ((Number) persister.getIdentifier(entity, (SharedSessionContractImplementor) null)).longValue();
+	}
+
+	private AbstractEntityPersister persister(Object entity) {
+		return persister(entity.getClass().getName());
+	}
+
+	private AbstractEntityPersister persister(String entityName) {
+		return (AbstractEntityPersister) sf.getMetamodel().entityPersister(entityName);
+	}
+}
@@ -1,12 +1,15 @@
 package refactoringml.db;
 
+import org.hibernate.annotations.GenericGenerator;
+
 import javax.persistence.*;
 
 @Entity
 @Table(name = "FieldMetric")
 public class FieldMetric {
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(generator = PooledIdGenerator.NAME)
+	@GenericGenerator(name = PooledIdGenerator.NAME, strategy = PooledIdGenerator.STRATEGY)
 	private long id;
 
 	@Column(nullable = true)
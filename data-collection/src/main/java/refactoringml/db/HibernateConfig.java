@@ -1,15 +1,22 @@
 package refactoringml.db;
 
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.cfg.Environment;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
 import org.hibernate.service.ServiceRegistry;
 
 import javax.persistence.CascadeType;
 import javax.persistence.ManyToOne;
+import java.sql.PreparedStatement;
 import java.util.Properties;
 
+import static refactoringml.util.PropertiesUtils.getProperty;
+
 public class HibernateConfig {
 
 	private static SessionFactory sessionFactory;
@@ -30,6 +37,14 @@ public class HibernateConfig {
 			settings.put(Environment.DIALECT, "org.hibernate.dialect.MySQL5InnoDBDialect");
 			settings.put(Environment.SHOW_SQL, "false");
 
+			// send the inserts of a transaction in ordered batches, the entities get their ids from the PooledIdGenerator
+			// MySQL rewrites every batch into a single multi-row insert
+			settings.put(Environment.STATEMENT_BATCH_SIZE, getProperty("jdbcBatchSize"));
+			settings.put(Environment.ORDER_INSERTS, "true");
+			settings.put(Environment.ORDER_UPDATES, "true");
+			settings.put(Environment.BATCH_VERSIONED_DATA, "true");
+			settings.put("hibernate.connection.rewriteBatchedStatements", "true");
+
 			if(drop)
 				settings.put(Environment.HBM2DDL_AUTO, "create-drop");
 			else
@@ -78,12 +93,41 @@ public class HibernateConfig {
 			configuration.addAnnotatedClass(FieldMetric.class);
 			configuration.addAnnotatedClass(ProcessMetrics.class);
 
+			//progress of the replayed journals, see refactoringml.CommitSpool
+			configuration.addAnnotatedClass(JournalCheckpoint.class);
+
 			ServiceRegistry serviceRegistry = new StandardServiceRegistryBuilder()
 					.applySettings(configuration.getProperties()).build();
 
 			sessionFactory = configuration.buildSessionFactory(serviceRegistry);
+			alignIdGenerators(sessionFactory);
 		}
 
 		return sessionFactory;
 	}
+
+	//Move the next free id of every entity table behind the ids already stored in it,
+	//e.g. for databases filled while MySQL still generated the ids
+	private static void alignIdGenerators(SessionFactory sf) {
+		try (Session session = sf.openSession()) {
+			session.beginTransaction();
+			session.doWork(connection -> {
+				for (EntityPersister persister : ((SessionFactoryImplementor) sf).getMetamodel().entityPersisters().values()) {
+					if (!(persister.getIdentifierGenerator() instanceof PooledIdGenerator))
+						continue;
+
+					PooledIdGenerator generator = (PooledIdGenerator) persister.getIdentifierGenerator();
+					String sql = String.format("INSERT INTO %1$s (%2$s, %3$s) SELECT ?, COALESCE(MAX(%4$s), 0) + 1 FROM %5$s " +
+									"ON DUPLICATE KEY UPDATE %3$s = GREATEST(%3$s, VALUES(%3$s))",
+							generator.getTableName(), generator.getSegmentColumnName(), generator.getValueColumnName(),
+							((AbstractEntityPersister) persister).getIdentifierColumnNames()[0], ((AbstractEntityPersister) persister).getTableName());
+					try (PreparedStatement statement = connection.prepareStatement(sql)) {
+						statement.setString(1, generator.getSegmentValue());
+						statement.executeUpdate();
+					}
+				}
+			});
+			session.getTransaction().commit();
+		}
+	}
 }
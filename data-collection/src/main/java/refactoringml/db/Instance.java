@@ -1,5 +1,7 @@
 package refactoringml.db;
 
+import org.hibernate.annotations.GenericGenerator;
+
 import javax.persistence.*;
 
 import static refactoringml.util.FilePathUtils.enforceUnixPaths;
@@ -9,7 +11,8 @@ import static refactoringml.util.FileUtils.IsTestFile;
 @MappedSuperclass
 public abstract class Instance {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = PooledIdGenerator.NAME)
+    @GenericGenerator(name = PooledIdGenerator.NAME, strategy = PooledIdGenerator.STRATEGY)
     protected long id;
 
     @ManyToOne
@@ -67,6 +70,12 @@ public abstract class Instance {
 
     public void setProcessMetrics(ProcessMetrics processMetrics) { this.processMetrics = processMetrics; }
 
+    public void setCommitMetaData(CommitMetaData commitMetaData) { this.commitMetaData = commitMetaData; }
+
+    public void setClassMetrics(ClassMetric classMetrics) { this.classMetrics = classMetrics; }
+
+    public void setMethodMetrics(MethodMetric methodMetrics) { this.methodMetrics = methodMetrics; }
+
     public String getCommit() { return commitMetaData.getCommitId(); }
 
     public ProcessMetrics getProcessMetrics() { return processMetrics; }
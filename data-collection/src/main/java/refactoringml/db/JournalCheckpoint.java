@@ -0,0 +1,36 @@
+package refactoringml.db;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+//The last record of the journal of a project, that was written to the database, see refactoringml.CommitSpool
+//It is written in the same transaction as the record, thus a repeated replay skips all records up to it
+@Entity
+@Table(name = "journal_checkpoint")
+public class JournalCheckpoint {
+	@Id
+	private long projectId;
+
+	private long lastSequence;
+
+	@Deprecated // hibernate purposes
+	public JournalCheckpoint() {}
+
+	public long getProjectId() { return projectId; }
+
+	public long getLastSequence() { return lastSequence; }
+
+	//Move the checkpoint of the project forward to the sequence, within the transaction of the connection
+	static void save(Connection connection, long projectId, long sequence) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement("INSERT INTO journal_checkpoint (projectId, lastSequence) VALUES (?, ?) " +
+				"ON DUPLICATE KEY UPDATE lastSequence = GREATEST(lastSequence, VALUES(lastSequence))")) {
+			statement.setLong(1, projectId);
+			statement.setLong(2, sequence);
+			statement.executeUpdate();
+		}
+	}
+}
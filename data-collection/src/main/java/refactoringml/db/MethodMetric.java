@@ -1,12 +1,15 @@
 package refactoringml.db;
 
+import org.hibernate.annotations.GenericGenerator;
+
 import javax.persistence.*;
 
 @Entity
 @Table(name = "MethodMetric")
 public class MethodMetric {
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(generator = PooledIdGenerator.NAME)
+	@GenericGenerator(name = PooledIdGenerator.NAME, strategy = PooledIdGenerator.STRATEGY)
 	private long id;
 
 	@Column(nullable = true, length = 2000) private String fullMethodName;
@@ -71,6 +74,8 @@ public class MethodMetric {
 		this.methodUniqueWordsQty = methodUniqueWordsQty;
 	}
 
+	public long getId() { return id; }
+
 	public int getStartLine() {
 		return startLine;
 	}
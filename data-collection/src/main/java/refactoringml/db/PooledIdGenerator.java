@@ -0,0 +1,35 @@
+package refactoringml.db;
+
+import org.hibernate.MappingException;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+import java.util.Properties;
+
+/*
+Id generator of all mined entities, which keeps JDBC batching enabled.
+With GenerationType.IDENTITY, Hibernate has to execute every insert at once to learn the generated id, thus it never batches them.
+This generator reserves ranges of ALLOCATION_SIZE ids per entity table in the table ID_TABLE, one row per entity table,
+and hands them out in memory with the pooled-lo optimizer, so the inserts can be ordered and sent in batches.
+HibernateConfig aligns the rows of ID_TABLE with the ids already stored in the entity tables.
+ */
+public class PooledIdGenerator extends TableGenerator {
+	//name and strategy for the @GenericGenerator annotation of the entities
+	public static final String NAME = "pooled";
+	public static final String STRATEGY = "refactoringml.db.PooledIdGenerator";
+
+	//table with the next free id of every entity table
+	public static final String ID_TABLE = "id_generators";
+	//number of ids reserved with a single access to the id table
+	public static final int ALLOCATION_SIZE = 1000;
+
+	@Override
+	public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+		params.setProperty(TABLE_PARAM, ID_TABLE);
+		// the rows of the id table are named after the entity tables, e.g. StableCommit and RefactoringCommit
+		params.setProperty(CONFIG_PREFER_SEGMENT_PER_ENTITY, "true");
+		params.setProperty(INCREMENT_PARAM, String.valueOf(ALLOCATION_SIZE));
+		params.setProperty(OPT_PARAM, "pooled-lo");
+		super.configure(type, params, serviceRegistry);
+	}
+}
@@ -1,5 +1,7 @@
 package refactoringml.db;
 
+import org.hibernate.annotations.GenericGenerator;
+
 import javax.persistence.*;
 import java.util.Collections;
 import java.util.Comparator;
@@ -11,7 +13,8 @@ import java.util.function.Predicate;
 @Table(name = "ProcessMetrics")
 public class ProcessMetrics {
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(generator = PooledIdGenerator.NAME)
+	@GenericGenerator(name = PooledIdGenerator.NAME, strategy = PooledIdGenerator.STRATEGY)
 	private long id;
 
 	//number of commits making changes to this class
@@ -42,11 +42,17 @@ public class Project {
 	private long projectSizeInBytes;
 
 	private int exceptionsCount;
+	//number of commits, whose added and deleted files were too large to detect renames with changed contents, see refactoringml.util.RenamePolicy
+	private int renameEscapeHatches;
 
 	private String lastCommitHash;
 	//does the project have a remote origin, or is it a local one?
 	private boolean isLocal;
 
+	//huge projects are mined in multiple shards, each one stores its own project, see refactoringml.Shard
+	private int shardIndex = 0;
+	private int shardCount = 1;
+
 	@Deprecated // hibernate purposes
 	public Project() {}
 
@@ -80,14 +86,30 @@ public class Project {
 		this.finishedDate = finishedDate;
 	}
 
+	public void setShard(int shardIndex, int shardCount) {
+		this.shardIndex = shardIndex;
+		this.shardCount = shardCount;
+	}
+
+	public int getShardIndex() { return shardIndex; }
+
+	public int getShardCount() { return shardCount; }
+
 	public void setExceptions(int exceptionsCount) {
 		this.exceptionsCount = exceptionsCount;
 	}
 
+	public void setRenameEscapeHatches(int renameEscapeHatches) { this.renameEscapeHatches = renameEscapeHatches; }
+
+	public int getRenameEscapeHatches() { return renameEscapeHatches; }
+
 	public long getId() {
 		return id;
 	}
 
+	//Forget the id assigned by a transaction, that was rolled back, so that the project can be persisted again
+	public void resetId() { this.id = 0; }
+
 	public long getJavaLoc() {
 		return javaLoc;
 	}
@@ -135,6 +157,8 @@ public class Project {
 				", numberOfProductionFiles=" + numberOfProductionFiles + '\'' +
 				", numberOfTestFiles=" + numberOfTestFiles + '\'' +
 				", projectName='" + projectName + '\'' +
+				", shard=" + shardIndex + "/" + shardCount +
+				", renameEscapeHatches=" + renameEscapeHatches +
 				'}';
 	}
 }
\ No newline at end of file
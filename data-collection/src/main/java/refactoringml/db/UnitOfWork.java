@@ -0,0 +1,150 @@
+package refactoringml.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.TransactionException;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/*
+A single transaction with the database, obtained from Database.beginWork.
+Every unit of work has its own session and connection from the pool, thus multiple threads can work with the database at once,
+as long as every thread uses its own unit of work.
+ */
+public class UnitOfWork implements BatchWork {
+	private static final Logger log = LogManager.getLogger(UnitOfWork.class);
+
+	private final SessionFactory sf;
+	private final Session session;
+	//the transaction was either committed or rolled back
+	private boolean finished = false;
+
+	UnitOfWork(SessionFactory sf) {
+		this.sf = sf;
+		this.session = sf.openSession();
+		session.beginTransaction();
+	}
+
+	public void persist(Object obj) {
+		session.persist(obj);
+	}
+
+	//Persist all entities of a mined commit, in the order they were collected
+	@Override
+	public void persist(CommitBatch batch) {
+		for(Object entity : batch.getEntities()) {
+			if(entity instanceof Instance) {
+				if(!attachCommitMetaData((Instance) entity))
+					continue;
+				attachMetrics((Instance) entity);
+			}
+			persist(entity);
+		}
+	}
+
+	//Commit meta data that was already persisted in an earlier transaction is detached from the current session,
+	//so the instance has to reference the managed entity instead.
+	//Returns false if the meta data does not exist anymore, e.g. because its transaction was rolled back.
+	private boolean attachCommitMetaData(Instance instance) {
+		CommitMetaData commitMetaData = instance.getCommitMetaData();
+		if(commitMetaData == null || commitMetaData.getId() == 0)
+			return true;
+
+		CommitMetaData managedCommitMetaData = loadCommitMetaData(commitMetaData.getId());
+		if(managedCommitMetaData == null) {
+			log.error("Commit meta data " + commitMetaData.getCommitId() + " was not found in the database, skipping the instance of class " + instance.getClassName());
+			return false;
+		}
+		instance.setCommitMetaData(managedCommitMetaData);
+		return true;
+	}
+
+	//Metrics persisted in an earlier transaction are shared by several instances, see the MetricRegistry,
+	//the instance references them by their id, without loading or persisting them again
+	private void attachMetrics(Instance instance) {
+		if(instance.getClassMetrics() != null && instance.getClassMetrics().getId() != 0)
+			instance.setClassMetrics(session.load(ClassMetric.class, instance.getClassMetrics().getId()));
+		if(instance.getMethodMetrics() != null && instance.getMethodMetrics().getId() != 0)
+			instance.setMethodMetrics(session.load(MethodMetric.class, instance.getMethodMetrics().getId()));
+	}
+
+	@Override
+	public void checkpoint(long projectId, long sequence) {
+		session.doWork(connection -> JournalCheckpoint.save(connection, projectId, sequence));
+	}
+
+	public void update(Object obj) {
+		session.update(obj);
+	}
+
+	public CommitMetaData loadCommitMetaData(long id) {
+		return session.get(CommitMetaData.class, id);
+	}
+
+	//Number of entities in the session, e.g. all entities persisted by this unit of work and their cascaded entities
+	@Override
+	public int getEntityCount() {
+		return session.getStatistics().getEntityCount();
+	}
+
+	@Override
+	public void commit() {
+		session.getTransaction().commit();
+		finished = true;
+	}
+
+	//safely rollback the transaction of this unit of work
+	@Override
+	public void rollback(String logExtension) {
+		finished = true;
+		//nothing to do in this case, recovering the session or transaction is to much effort and the db takes care of a failed transaction
+		if(!session.isOpen()) {
+			log.error("Session was already closed during attempted rollback: Doing Nothing." + logExtension);
+			return;
+		}
+
+		if(!session.isConnected()){
+			try{
+				Connection connection =	sf.getSessionFactoryOptions().getServiceRegistry().
+						getService(ConnectionProvider.class).getConnection();
+				session.reconnect(connection);
+			} catch (SQLException e) {
+				log.error("Failed to reconnect session object." + logExtension, e);
+			}
+		}
+
+		//standard case for a rollback
+		if(session.isConnected() && session.getTransaction() != null) {
+			try{
+				session.getTransaction().rollback();
+				return;
+			} catch (TransactionException e) {
+				log.error("Failed to rollback session: " + session.toString() + logExtension, e);
+			}
+		} else {
+			//other cases:
+			//1. not connected to the DB : we could raise an error here, because something is probably wrong with the db
+			//2. connected but no transaction object : nothing to do
+			log.error("Session is in a bad state: " + session.toString() + logExtension);
+		}
+	}
+
+	//Close the session and give its connection back to the pool
+	//A transaction, that was neither committed nor rolled back, is rolled back
+	@Override
+	public void close() {
+		try {
+			if (!session.isOpen())
+				return;
+			if (!finished && session.getTransaction() != null && session.getTransaction().isActive())
+				session.getTransaction().rollback();
+			session.close();
+		} catch(Exception e) {
+			// what to do? this really shouldn't happen.
+			log.error("Error when closing the connection to the Database: ", e);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package refactoringml.util;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import java.io.IOException;
+import java.util.*;
+
+/*
+Index of the blob ids of all java files matching the path filter, updated incrementally with every commit in the order they are mined.
+Instead of walking the tree of a commit from its root, the blob of a file is a map lookup.
+Every indexed commit gets a sequence number and every path keeps the history of its blob ids by sequence number,
+thus a file can be looked up in every indexed commit, that was not dropped with retainOnly yet.
+A commit is indexed with its diff entries, if it follows the last indexed commit.
+Otherwise, e.g. after a merge or a branch switch, the index compares the trees of both commits, which only reads the changed subtrees.
+This class is not thread safe.
+ */
+public class BlobIndex {
+	//marks a deleted path in its history
+	private static final ObjectId DELETED = ObjectId.zeroId();
+
+	//the indexed files, the diff entries of the commits have to be filtered the same way
+	private final JavaPathFilter pathFilter;
+
+	//history of every java path: the blob id from the sequence number of the commit on, that changed it
+	private final Map<String, TreeMap<Integer, ObjectId>> paths = new HashMap<>();
+	//sequence numbers of the indexed commits, that can still be looked up
+	private final Map<ObjectId, Integer> commits = new HashMap<>();
+	//the last indexed commit and its tree
+	private ObjectId currentCommit;
+	private ObjectId currentTree;
+	private int currentSequence = -1;
+
+	//statistics
+	private long indexedByDiff = 0;
+	private long indexedByTree = 0;
+
+	public BlobIndex() {
+		this(JavaPathFilter.ALL_JAVA_FILES);
+	}
+
+	public BlobIndex(JavaPathFilter pathFilter) {
+		this.pathFilter = pathFilter;
+	}
+
+	//Add the commit to the index, the entries have to be the diff between the commit and its first parent
+	public void index(RevCommit commit, List<DiffEntry> entries, ObjectReader reader) throws IOException {
+		int sequence = currentSequence + 1;
+		RevCommit parent = commit.getParentCount() == 0 ? null : commit.getParent(0);
+		boolean followsCurrent = parent == null ? currentCommit == null : parent.equals(currentCommit);
+		if (followsCurrent && entries != null) {
+			for (DiffEntry entry : entries) {
+				if (entry.getChangeType() == DiffEntry.ChangeType.DELETE || entry.getChangeType() == DiffEntry.ChangeType.RENAME)
+					update(entry.getOldPath(), sequence, DELETED);
+				if (entry.getChangeType() != DiffEntry.ChangeType.DELETE)
+					update(entry.getNewPath(), sequence, entry.getNewId().toObjectId());
+			}
+			indexedByDiff++;
+		} else {
+			indexChangedTrees(commit, sequence, reader);
+			indexedByTree++;
+		}
+
+		currentSequence = sequence;
+		currentCommit = commit.copy();
+		currentTree = commit.getTree().copy();
+		commits.put(currentCommit, sequence);
+	}
+
+	//Compare the tree of the last indexed commit with the tree of the new one and index all changed java files
+	private void indexChangedTrees(RevCommit commit, int sequence, ObjectReader reader) throws IOException {
+		try (TreeWalk treeWalk = new TreeWalk(reader)) {
+			if (currentTree == null)
+				treeWalk.addTree(new EmptyTreeIterator());
+			else
+				treeWalk.addTree(new CanonicalTreeParser(null, reader, currentTree));
+			treeWalk.addTree(new CanonicalTreeParser(null, reader, commit.getTree()));
+			treeWalk.setRecursive(true);
+			treeWalk.setFilter(AndTreeFilter.create(pathFilter, TreeFilter.ANY_DIFF));
+
+			while (treeWalk.next()) {
+				boolean exists = treeWalk.getFileMode(1) != FileMode.MISSING;
+				update(treeWalk.getPathString(), sequence, exists ? treeWalk.getObjectId(1) : DELETED);
+			}
+		}
+	}
+
+	private void update(String path, int sequence, ObjectId blobId) {
+		if (!pathFilter.matches(path))
+			return;
+		paths.computeIfAbsent(path, p -> new TreeMap<>()).put(sequence, blobId);
+	}
+
+	//Find the blob of the java file in the commit
+	//Returns null if the commit or the file can not be looked up in the index, then the caller has to read the tree itself
+	//Throws an IllegalArgumentException, like TreeWalk.forPath, if the file does not exist in the indexed commit
+	public ObjectId find(AnyObjectId commit, String path) {
+		Integer sequence = commits.get(commit);
+		if (sequence == null || !pathFilter.matches(path))
+			return null;
+
+		TreeMap<Integer, ObjectId> history = paths.get(path);
+		Map.Entry<Integer, ObjectId> entry = history == null ? null : history.floorEntry(sequence);
+		if (entry == null || entry.getValue().equals(DELETED))
+			throw new IllegalArgumentException("No path found in " + commit.getName() + ": " + path);
+		return entry.getValue();
+	}
+
+	//Drop all commits, except the given ones and the last indexed one, as well as the history that is only needed by the dropped commits
+	public void retainOnly(Set<String> commitIds) {
+		TreeSet<Integer> retained = new TreeSet<>();
+		retained.add(currentSequence);
+		commits.entrySet().removeIf(commit -> {
+			if (commit.getValue() == currentSequence || commitIds.contains(commit.getKey().getName())) {
+				retained.add(commit.getValue());
+				return false;
+			}
+			return true;
+		});
+
+		Iterator<TreeMap<Integer, ObjectId>> histories = paths.values().iterator();
+		while (histories.hasNext()) {
+			TreeMap<Integer, ObjectId> history = histories.next();
+			if (history.size() > 1)
+				retainOnly(history, retained);
+			// a path that was deleted in all retained commits is not needed anymore
+			if (history.size() == 1 && history.firstEntry().getValue().equals(DELETED))
+				histories.remove();
+		}
+	}
+
+	//Keep the blob ids of the path, that are visible in one of the retained commits
+	private void retainOnly(TreeMap<Integer, ObjectId> history, TreeSet<Integer> retained) {
+		List<Integer> invisible = new ArrayList<>();
+		Integer sequence = history.firstKey();
+		for (Integer next = history.higherKey(sequence); next != null; sequence = next, next = history.higherKey(sequence)) {
+			// the entry is visible, if a retained commit is indexed before the next change of the path
+			Integer retainedSequence = retained.ceiling(sequence);
+			if (retainedSequence == null || retainedSequence >= next)
+				invisible.add(sequence);
+		}
+		invisible.forEach(history::remove);
+	}
+
+	public int getIndexedPaths() { return paths.size(); }
+
+	public int getRetainedCommits() { return commits.size(); }
+
+	public String statistics() {
+		return String.format("Blob index: %d commits indexed by their diff, %d by their tree, %d paths and %d commits retained",
+				indexedByDiff, indexedByTree, getIndexedPaths(), getRetainedCommits());
+	}
+}
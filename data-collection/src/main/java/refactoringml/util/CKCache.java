@@ -0,0 +1,96 @@
+package refactoringml.util;
+
+import com.github.mauricioaniche.ck.CK;
+import com.github.mauricioaniche.ck.CKClassResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.lib.ObjectId;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Bounded LRU cache of the CK results of single file versions.
+A file version is identified by its git blob id, thus the same content is only analyzed once, regardless of the commit or path it appears in.
+Note that CKClassResult.getFile() returns the path of the file when it was analyzed first, callers should use the path they know instead.
+ */
+public class CKCache {
+	private static final Logger log = LogManager.getLogger(CKCache.class);
+	//results of different CK versions must not be mixed
+	private static final String CK_VERSION = readCKVersion();
+
+	private final int maxSize;
+	private final Map<String, List<CKClassResult>> cache;
+
+	//statistics
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+
+	public CKCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, List<CKClassResult>> eldest) {
+				return size() > CKCache.this.maxSize;
+			}
+		};
+	}
+
+	//Returns the cached CK results of the blob, or null if it was not analyzed yet
+	public List<CKClassResult> get(ObjectId blobId) {
+		List<CKClassResult> results;
+		synchronized (cache) {
+			results = cache.get(key(blobId));
+		}
+		if(results == null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		return results;
+	}
+
+	public void put(ObjectId blobId, List<CKClassResult> results) {
+		if(maxSize <= 0)
+			return;
+		synchronized (cache) {
+			cache.put(key(blobId), results);
+		}
+	}
+
+	public long getHits() { return hits.get(); }
+
+	public long getMisses() { return misses.get(); }
+
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public String statistics() {
+		long lookups = getHits() + getMisses();
+		double hitRatio = lookups == 0 ? 0 : getHits() * 100.0 / lookups;
+		return String.format("CK cache: %d hits, %d misses (%.2f%% hit ratio), %d of %d entries used", getHits(), getMisses(), hitRatio, size(), maxSize);
+	}
+
+	private static String key(ObjectId blobId) {
+		return blobId.getName() + "@" + CK_VERSION;
+	}
+
+	private static String readCKVersion() {
+		try (InputStream stream = CK.class.getResourceAsStream("/META-INF/maven/com.github.mauricioaniche/ck/pom.properties")) {
+			if(stream != null) {
+				Properties properties = new Properties();
+				properties.load(stream);
+				return properties.getProperty("version", "unknown");
+			}
+		} catch (IOException e) {
+			log.error("Could not read the version of CK.", e);
+		}
+		return "unknown";
+	}
+}
@@ -0,0 +1,228 @@
+package refactoringml.util;
+
+import com.github.mauricioaniche.ck.CKClassResult;
+import com.github.mauricioaniche.ck.CKNotifier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static refactoringml.util.PropertiesUtils.getProperty;
+
+/*
+Long-lived thread pool for the CK tool, shared by all analyzers.
+Every CK run has to finish within its timeout, counted from the time it was submitted, including the time it waited for a thread.
+Timed out runs are interrupted and can no longer report results: their notifier throws as soon as CK reports another class.
+JDT ignores interrupts while parsing, thus a timed out run might keep its thread busy for a long time.
+The pool gets an additional thread for every such run, until it stops, so a hanging file never blocks the later runs.
+The statistics of the service cover the runs of all projects, the runs of a single project are counted by its own Usage.
+ */
+public class CKService {
+	private static final Logger log = LogManager.getLogger(CKService.class);
+	private static CKService instance;
+
+	private final ThreadPoolExecutor executor;
+	//number of threads for the runs, that did not time out
+	private final int poolSize;
+	//timeout in seconds for a single CK run
+	private final long timeout;
+
+	//statistics
+	private final AtomicInteger activeJobs = new AtomicInteger(0);
+	private final AtomicLong completedJobs = new AtomicLong(0);
+	private final AtomicLong failedJobs = new AtomicLong(0);
+	private final AtomicLong timedOutJobs = new AtomicLong(0);
+	//timed out jobs, that did not stop yet, e.g. because JDT is still parsing
+	private final AtomicInteger lingeringJobs = new AtomicInteger(0);
+	private final AtomicLong busyMillis = new AtomicLong(0);
+
+	//Counters of the CK runs of a single project, while other projects share the service
+	public static class Usage {
+		private final AtomicLong completedJobs = new AtomicLong(0);
+		private final AtomicLong failedJobs = new AtomicLong(0);
+		private final AtomicLong timedOutJobs = new AtomicLong(0);
+		private final AtomicLong busyMillis = new AtomicLong(0);
+
+		public long getCompletedJobs() { return completedJobs.get(); }
+
+		public long getFailedJobs() { return failedJobs.get(); }
+
+		public long getTimedOutJobs() { return timedOutJobs.get(); }
+
+		public String statistics() {
+			return String.format("CK runs: %d completed, %d failed, %d timed out, %.2f seconds busy",
+					getCompletedJobs(), getFailedJobs(), getTimedOutJobs(), busyMillis.get() / 1000.0);
+		}
+	}
+
+	public CKService(int poolSize, long timeout) {
+		AtomicInteger threadCount = new AtomicInteger(0);
+		this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "ck-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.poolSize = poolSize;
+		this.timeout = timeout;
+	}
+
+	//The service shared by all projects mined in this JVM, configured with ckPoolSize and timeoutCK
+	public static synchronized CKService getInstance() {
+		if(instance == null)
+			instance = new CKService(Integer.parseInt(getProperty("ckPoolSize")), Long.parseLong(getProperty("timeoutCK")));
+		return instance;
+	}
+
+	//Calculates the CK metrics of the given source files with a timeout and blocks until it finished
+	//sources maps the file paths to their source code, see CKUtils.calculate
+	//The notifier is called on a thread of this service
+	//Returns true if CK analyzed all files, false if it failed or timed out, in this case the notifier might only have seen a part of the results
+	public boolean calculate(Map<String, String> sources, String commitHash, String projectUrl, CKNotifier ckNotifier) {
+		return calculate(sources, commitHash, projectUrl, new Usage(), ckNotifier);
+	}
+
+	//Same as calculate, but also counts the run in the usage of the project
+	public boolean calculate(Map<String, String> sources, String commitHash, String projectUrl, Usage usage, CKNotifier ckNotifier) {
+		String files = String.join(", ", sources.keySet());
+		CKJob job = new CKJob(sources, files, commitHash, projectUrl, usage, ckNotifier);
+		Future<?> future = executor.submit(job);
+
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+		try {
+			if(!job.started.await(timeout, TimeUnit.SECONDS))
+				throw new TimeoutException("CK run did not start within the timeout.");
+			future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+			return true;
+		} catch (TimeoutException e){
+			job.cancel(future);
+			timedOutJobs.incrementAndGet();
+			usage.timedOutJobs.incrementAndGet();
+			log.error("CK failed to calculate metrics for " + files + " on the commit " + commitHash
+					+ " from the project: " + projectUrl + " with a timeout of " + timeout + " seconds.", e);
+		} catch (ExecutionException e){
+			log.error("Failed to calculate CK metrics for " + files + " on the commit " + commitHash
+					+ " from the project: " + projectUrl, e.getCause());
+		} catch (InterruptedException e){
+			job.cancel(future);
+			Thread.currentThread().interrupt();
+			log.error("Interrupted while calculating CK metrics for " + files + " on the commit " + commitHash
+					+ " from the project: " + projectUrl, e);
+		}
+		return false;
+	}
+
+	public int getActiveJobs() { return activeJobs.get(); }
+
+	public int getQueuedJobs() { return executor.getQueue().size(); }
+
+	public long getCompletedJobs() { return completedJobs.get(); }
+
+	public long getFailedJobs() { return failedJobs.get(); }
+
+	public long getTimedOutJobs() { return timedOutJobs.get(); }
+
+	public int getLingeringJobs() { return lingeringJobs.get(); }
+
+	//Run CK on the sources, on a thread of this service
+	protected void runCK(Map<String, String> sources, CKNotifier notifier) {
+		CKUtils.calculate(sources, notifier);
+	}
+
+	//Replace the threads of the timed out runs, that are still running, with additional threads
+	private void resize() {
+		synchronized (executor) {
+			int size = poolSize + lingeringJobs.get();
+			if(size > executor.getMaximumPoolSize()) {
+				executor.setMaximumPoolSize(size);
+				executor.setCorePoolSize(size);
+			} else {
+				executor.setCorePoolSize(size);
+				executor.setMaximumPoolSize(size);
+			}
+		}
+	}
+
+	public String statistics() {
+		return String.format("CK service: %d threads, %d active, %d queued, %d completed, %d failed, %d timed out (%d still running), %.2f seconds busy",
+				executor.getCorePoolSize(), getActiveJobs(), getQueuedJobs(), getCompletedJobs(), getFailedJobs(), getTimedOutJobs(), getLingeringJobs(), busyMillis.get() / 1000.0);
+	}
+
+	//A single CK run
+	private class CKJob implements Callable<Void> {
+		private final Map<String, String> sources;
+		private final String files;
+		private final String commitHash;
+		private final String projectUrl;
+		private final Usage usage;
+		private final CKNotifier ckNotifier;
+		private final CountDownLatch started = new CountDownLatch(1);
+		private volatile long startTime;
+		private volatile boolean cancelled = false;
+		private boolean running = false;
+
+		private CKJob(Map<String, String> sources, String files, String commitHash, String projectUrl, Usage usage, CKNotifier ckNotifier) {
+			this.sources = sources;
+			this.files = files;
+			this.commitHash = commitHash;
+			this.projectUrl = projectUrl;
+			this.usage = usage;
+			this.ckNotifier = ckNotifier;
+		}
+
+		@Override
+		public Void call() {
+			synchronized (this) {
+				startTime = System.currentTimeMillis();
+				running = true;
+			}
+			activeJobs.incrementAndGet();
+			started.countDown();
+			try {
+				runCK(sources, this::notify);
+				completedJobs.incrementAndGet();
+				usage.completedJobs.incrementAndGet();
+				log.debug("CK miner took " + (System.currentTimeMillis() - startTime) + " milliseconds to calculate the metrics for file: " + files + " on commit: " + commitHash + " from project " + projectUrl);
+				return null;
+			} catch (RuntimeException e) {
+				if(!cancelled) {
+					failedJobs.incrementAndGet();
+					usage.failedJobs.incrementAndGet();
+				}
+				throw e;
+			} finally {
+				activeJobs.decrementAndGet();
+				long runTime = System.currentTimeMillis() - startTime;
+				busyMillis.addAndGet(runTime);
+				usage.busyMillis.addAndGet(runTime);
+				synchronized (this) {
+					running = false;
+					if(cancelled) {
+						lingeringJobs.decrementAndGet();
+						resize();
+					}
+				}
+			}
+		}
+
+		//Only pass the results on, as long as the caller still waits for them
+		//synchronized with cancel, so that no result is reported after the caller stopped waiting
+		private synchronized void notify(CKClassResult result) {
+			if(cancelled || Thread.currentThread().isInterrupted())
+				throw new CancellationException("CK run for " + files + " on commit " + commitHash + " was cancelled.");
+			ckNotifier.notify(result);
+		}
+
+		private synchronized void cancel(Future<?> future) {
+			if(cancelled)
+				return;
+			cancelled = true;
+			if(running) {
+				lingeringJobs.incrementAndGet();
+				resize();
+			}
+			future.cancel(true);
+		}
+	}
+}
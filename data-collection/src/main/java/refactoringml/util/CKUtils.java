@@ -1,50 +1,66 @@
 package refactoringml.util;
 
-import com.github.mauricioaniche.ck.CK;
 import com.github.mauricioaniche.ck.CKClassResult;
 import com.github.mauricioaniche.ck.CKMethodResult;
 import com.github.mauricioaniche.ck.CKNotifier;
+import com.github.mauricioaniche.ck.CKVisitor;
+import com.github.mauricioaniche.ck.util.MetricsFinder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
 import refactoringml.db.ClassMetric;
 import refactoringml.db.MethodMetric;
 
 import java.util.Arrays;
-import java.util.concurrent.*;
+import java.util.Map;
 import java.util.stream.Collectors;
 
-import static refactoringml.util.PropertiesUtils.getProperty;
 import static refactoringml.util.RefactoringUtils.cleanMethodName;
 
 public class CKUtils {
 	private static final Logger log = LogManager.getLogger(CKUtils.class);
-	private static long timeout = Long.parseLong(getProperty("timeoutCK"));
-
-	//TODO: figure out if we could parallelize the CK tool for various class files on the same commit
-	//Calls the CK.calculate with a timeout.
-	public static void calculate(String tempdir, String commitHash, String projectUrl, CKNotifier ckNotifier){
-		ExecutorService executor = Executors.newFixedThreadPool(1);
-		FutureTask timeoutTask = new FutureTask(() -> {
-			long startTimeCK = System.currentTimeMillis();
-			new CK().calculate(tempdir, ckNotifier);
-			log.debug("CK miner took " + (System.currentTimeMillis() - startTimeCK) + " milliseconds to calculate the metrics for file: " + tempdir + " on commit: " + commitHash + " from project " + projectUrl);
-			return null;
-		});
-		executor.submit(timeoutTask);
-
-		try {
-			timeoutTask.get(timeout, TimeUnit.SECONDS);
-		} catch (TimeoutException e){
-			log.error("CK failed to calculate metrics for " + tempdir + " on the commit " + commitHash
-					+ " from the project: " + projectUrl + " with a timeout of " + timeout + " seconds.", e);
-		} catch (InterruptedException | ExecutionException e){
-			log.error("Failed to calculate CK metrics for " + tempdir + " on the commit " + commitHash
-					+ " from the project: " + projectUrl, e);
-		} finally {
-			executor.shutdownNow();
+
+	//Calculate the CK metrics of the given source files, without writing them to disk
+	//sources maps the path of a file, which CK reports as the file of its classes, to its source code
+	//Parses and visits the files the same way as CK.calculate, with the default metrics of new CK()
+	public static void calculate(Map<String, String> sources, CKNotifier ckNotifier) {
+		MetricsFinder finder = new MetricsFinder();
+		for (Map.Entry<String, String> source : sources.entrySet()) {
+			// the run was cancelled, e.g. because of a timeout
+			if (Thread.currentThread().isInterrupted())
+				return;
+
+			String path = source.getKey();
+			try {
+				CompilationUnit cu = parse(path, source.getValue());
+				CKVisitor visitor = new CKVisitor(path, cu, finder::allClassLevelMetrics, () -> finder.allMethodLevelMetrics(true));
+				cu.accept(visitor);
+				for (CKClassResult result : visitor.getCollectedClasses())
+					ckNotifier.notify(result);
+			} catch (Exception e) {
+				// same as CK, a broken file must not stop the analysis of the others
+				log.error("CK could not calculate the metrics for " + path, e);
+			}
 		}
 	}
 
+	private static CompilationUnit parse(String path, String sourceCode) {
+		ASTParser parser = ASTParser.newParser(AST.JLS11);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setResolveBindings(true);
+		parser.setBindingsRecovery(true);
+		Map<String, String> options = JavaCore.getOptions();
+		JavaCore.setComplianceOptions(JavaCore.VERSION_11, options);
+		parser.setCompilerOptions(options);
+		parser.setEnvironment(null, null, null, true);
+		parser.setUnitName(path);
+		parser.setSource(sourceCode.toCharArray());
+		return (CompilationUnit) parser.createAST(null);
+	}
+
 	/**
 	 * This method simplifies full method names, so that both
 	 * CK's and RefactoringMiner's format match.
@@ -0,0 +1,65 @@
+package refactoringml.util;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.eclipse.jgit.diff.DiffEntry;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static refactoringml.util.JGitUtils.getJGitRenames;
+
+/*
+Everything the miner needs to know about the changes of a single commit, calculated once by GitContext.calculateDiff:
+the JGit diff entries between the commit and its first parent, the number of added and deleted lines of every changed java file,
+and the renames JGit detected.
+The RefactoringAnalyzer, the ProcessMetricsCollector and the blob index all work on the same instance,
+thus the blobs of a commit are loaded and diffed only once.
+ */
+public class CommitDiff {
+	private final List<DiffEntry> entries;
+	//added and deleted lines of all changed, but not deleted java files
+	private final Map<DiffEntry, LineChanges> lineChanges = new IdentityHashMap<>();
+	//the old and new paths of all renamed files
+	private final Set<ImmutablePair<String, String>> renames;
+	//time the rename detection took in milliseconds, see RenamePolicy
+	private final long renameDetectionTime;
+
+	public CommitDiff(List<DiffEntry> entries, long renameDetectionTime) {
+		this.entries = entries;
+		this.renames = getJGitRenames(entries);
+		this.renameDetectionTime = renameDetectionTime;
+	}
+
+	public List<DiffEntry> getEntries() { return entries; }
+
+	public Set<ImmutablePair<String, String>> getRenames() { return renames; }
+
+	public long getRenameDetectionTime() { return renameDetectionTime; }
+
+	void addLineChanges(DiffEntry entry, int linesAdded, int linesDeleted) {
+		lineChanges.put(entry, new LineChanges(linesAdded, linesDeleted));
+	}
+
+	//Lines added to the file of the entry, 0 if it is not a changed java file
+	public int getLinesAdded(DiffEntry entry) {
+		LineChanges changes = lineChanges.get(entry);
+		return changes == null ? 0 : changes.added;
+	}
+
+	//Lines deleted from the file of the entry, 0 if it is not a changed java file
+	public int getLinesDeleted(DiffEntry entry) {
+		LineChanges changes = lineChanges.get(entry);
+		return changes == null ? 0 : changes.deleted;
+	}
+
+	private static class LineChanges {
+		private final int added;
+		private final int deleted;
+
+		private LineChanges(int added, int deleted) {
+			this.added = added;
+			this.deleted = deleted;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package refactoringml.util;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/*
+The ids of all commits of a branch, oldest first, enumerated in a single pass over the history.
+The ids are stored in one compact byte array, 20 bytes per commit, and the merge commits in a bit set,
+instead of keeping a parsed RevCommit with its message for every commit of the history, like a RevWalk sorted in reverse does.
+The same list counts the commits, selects the range of a shard and feeds the commits to mine:
+the Cursor parses the commits in batches, every batch with a new RevWalk, so the processed commits can be garbage collected.
+By default the list contains all commits reachable from the head, in the order of a reverse RevWalk.
+With firstParent only the first parents are followed, starting from the head.
+ */
+public class CommitList {
+	private static final int ID_LENGTH = Constants.OBJECT_ID_LENGTH;
+	//number of commits parsed with the same RevWalk, afterwards the walk and all its commits are dropped
+	private static final int PARSE_BATCH_SIZE = 1000;
+
+	//raw ids of all commits, oldest first
+	private byte[] ids = new byte[1024 * ID_LENGTH];
+	private int size = 0;
+	//indexes of all commits with more than one parent
+	private final BitSet merges = new BitSet();
+	//indexes of all other commits, created once they are needed
+	private int[] nonMerges;
+
+	private CommitList() {}
+
+	//Enumerate the history of the head, without parsing the messages of the commits
+	public static CommitList load(Repository repository, String head, boolean firstParent) throws IOException {
+		CommitList commits = new CommitList();
+		try (RevWalk walk = new RevWalk(repository)) {
+			walk.setRetainBody(false);
+			RevCommit commit = walk.parseCommit(repository.resolve(head));
+			if (firstParent) {
+				while (commit != null) {
+					commits.add(commit);
+					commit = commit.getParentCount() == 0 ? null : commit.getParent(0);
+					if (commit != null)
+						walk.parseHeaders(commit);
+				}
+			} else {
+				walk.markStart(commit);
+				for (RevCommit next : walk)
+					commits.add(next);
+			}
+		}
+		commits.reverse();
+		return commits;
+	}
+
+	private void add(RevCommit commit) {
+		if ((size + 1) * ID_LENGTH > ids.length)
+			ids = Arrays.copyOf(ids, ids.length * 2);
+		commit.copyRawTo(ids, size * ID_LENGTH);
+		if (commit.getParentCount() > 1)
+			merges.set(size);
+		size++;
+	}
+
+	//The walk found the newest commits first, thus reverse the ids and merges in place
+	private void reverse() {
+		byte[] swap = new byte[ID_LENGTH];
+		for (int i = 0, j = size - 1; i < j; i++, j--) {
+			System.arraycopy(ids, i * ID_LENGTH, swap, 0, ID_LENGTH);
+			System.arraycopy(ids, j * ID_LENGTH, ids, i * ID_LENGTH, ID_LENGTH);
+			System.arraycopy(swap, 0, ids, j * ID_LENGTH, ID_LENGTH);
+
+			boolean merge = merges.get(i);
+			merges.set(i, merges.get(j));
+			merges.set(j, merge);
+		}
+		ids = Arrays.copyOf(ids, size * ID_LENGTH);
+	}
+
+	public int size() { return size; }
+
+	public ObjectId get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Commit " + index + " of " + size);
+		return ObjectId.fromRaw(ids, index * ID_LENGTH);
+	}
+
+	public boolean isMerge(int index) { return merges.get(index); }
+
+	//The names of all commits, that are not merges, oldest first
+	public List<String> nonMergeCommits() {
+		if (nonMerges == null) {
+			nonMerges = new int[size - merges.cardinality()];
+			for (int index = 0, position = 0; index < size; index++) {
+				if (!merges.get(index))
+					nonMerges[position++] = index;
+			}
+		}
+		return new AbstractList<>() {
+			@Override
+			public String get(int position) {
+				return CommitList.this.get(nonMerges[position]).getName();
+			}
+
+			@Override
+			public int size() {
+				return nonMerges.length;
+			}
+		};
+	}
+
+	//Parse the commits oldest first, starting at the given index
+	public Cursor cursor(Repository repository, int from) {
+		return new Cursor(repository, from);
+	}
+
+	public class Cursor implements AutoCloseable {
+		private final Repository repository;
+		private int next;
+		private RevWalk walk;
+		private int parsedByWalk = 0;
+
+		private Cursor(Repository repository, int from) {
+			this.repository = repository;
+			this.next = from;
+		}
+
+		//Parse the next commit with its message, null after the last commit
+		public RevCommit next() throws IOException {
+			if (next >= size)
+				return null;
+
+			if (walk == null || parsedByWalk == PARSE_BATCH_SIZE) {
+				close();
+				walk = new RevWalk(repository);
+				parsedByWalk = 0;
+			}
+			parsedByWalk++;
+			return walk.parseCommit(get(next++));
+		}
+
+		@Override
+		public void close() {
+			if (walk != null)
+				walk.close();
+			walk = null;
+		}
+	}
+}
@@ -1,9 +1,19 @@
 package refactoringml.util;
 
 import com.github.mauricioaniche.ck.util.SourceCodeLineCounter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -23,6 +33,65 @@ public class Counter {
 		return new CounterResult(productionFiles.size(), testFiles.size(), productionLoc, testLoc);
 	}
 
+	//Count the java files and their lines in the tree of the given revision, e.g. HEAD, without a checkout
+	//The paths are relative to the root of the repository
+	public static CounterResult countProductionAndTestFiles(Repository repository, String revision) throws IOException {
+		long productionFiles = 0, testFiles = 0, productionLoc = 0, testLoc = 0;
+		try (ObjectReader reader = repository.newObjectReader(); TreeWalk treeWalk = createTreeWalk(repository, reader, revision)) {
+			while (treeWalk.next()) {
+				String path = treeWalk.getPathString();
+				if (!FileUtils.IsJavaFile(path) || !isFile(treeWalk))
+					continue;
+
+				byte[] content = reader.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB).getBytes();
+				long loc = countLines(content);
+				if (IsTestFile(path)) {
+					testFiles++;
+					testLoc += loc;
+				} else {
+					productionFiles++;
+					productionLoc += loc;
+				}
+			}
+		}
+		return new CounterResult(productionFiles, testFiles, productionLoc, testLoc);
+	}
+
+	//Sum the sizes of all files in the tree of the given revision, i.e. the size of a checkout without the git directory
+	//Only the object headers are read, not the contents
+	public static long sizeOfTree(Repository repository, String revision) throws IOException {
+		long size = 0;
+		try (ObjectReader reader = repository.newObjectReader(); TreeWalk treeWalk = createTreeWalk(repository, reader, revision)) {
+			while (treeWalk.next()) {
+				if (isFile(treeWalk))
+					size += reader.getObjectSize(treeWalk.getObjectId(0), Constants.OBJ_BLOB);
+			}
+		}
+		return size;
+	}
+
+	private static TreeWalk createTreeWalk(Repository repository, ObjectReader reader, String revision) throws IOException {
+		TreeWalk treeWalk = new TreeWalk(reader);
+		try (RevWalk walk = new RevWalk(reader)) {
+			treeWalk.addTree(walk.parseCommit(repository.resolve(revision)).getTree());
+		}
+		treeWalk.setRecursive(true);
+		return treeWalk;
+	}
+
+	//regular and executable files, but no symlinks or submodules
+	private static boolean isFile(TreeWalk treeWalk) {
+		return (treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE;
+	}
+
+	private static long countLines(byte[] content) {
+		try {
+			return (long) SourceCodeLineCounter.getNumberOfLines(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)));
+		} catch(Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	private static long countLines(String x) {
 		try {
 			return (long) SourceCodeLineCounter.getNumberOfLines(new BufferedReader(new FileReader(x)));
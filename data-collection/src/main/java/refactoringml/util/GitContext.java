@@ -0,0 +1,412 @@
+package refactoringml.util;
+
+import org.eclipse.jgit.diff.ContentSource;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.BinaryBlobException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+All JGit objects needed to mine a single repository, every mined repository gets its own context.
+The context reuses one object reader to calculate diffs, as well as one to look up commits and files,
+instead of creating new ones for every request.
+The diff of a commit is calculated in a single pass, see calculateDiff: every blob is loaded only once
+and shared between the rename detection and the line counting of the changed java files.
+The rename detection is bounded by a RenamePolicy and only files matching the JavaPathFilter are diffed.
+Reading files is cached: java files of recently mined commits are found in the blob index,
+the tree ids of the last parsed commits are kept, so a commit is only parsed once,
+and the contents of the last read blobs are kept up to a budget of bytes.
+JGit objects are not thread safe, thus the diffs and the lookups are synchronized separately:
+the diff stage does not wait for the stages reading files.
+ */
+public class GitContext implements AutoCloseable {
+	private final Repository repository;
+	//reads the trees and blobs to calculate the diffs between commits and their parents, guarded by itself
+	private final ObjectReader diffReader;
+	//the same algorithm a DiffFormatter would use to calculate the edit lists
+	private final DiffAlgorithm diffAlgorithm;
+	//bounds the rename detection of huge commits, guarded by the diff reader
+	private final RenamePolicy renamePolicy;
+	//the files to diff, all other files are skipped
+	private final JavaPathFilter pathFilter;
+	//reads the commits, trees and blobs of the files to analyze
+	private final ObjectReader reader;
+	//blob ids of the java files in the mined commits, guarded by the reader
+	private final BlobIndex blobIndex;
+
+	//number of commits, whose tree ids are cached
+	private static final int TREE_CACHE_SIZE = 10000;
+	//tree ids of the last parsed commits, guarded by itself
+	private final Map<ObjectId, ObjectId> treeIds;
+	//max size of all cached blobs in bytes, 0 disables the cache
+	private final long blobCacheBytes;
+	//contents of the last read blobs, guarded by itself
+	private final LinkedHashMap<ObjectId, CachedBlob> blobs = new LinkedHashMap<>(16, 0.75f, true);
+	//size of all cached blobs in bytes, guarded by blobs
+	private long cachedBytes = 0;
+
+	//statistics
+	private final AtomicLong indexHits = new AtomicLong(0);
+	private final AtomicLong treeHits = new AtomicLong(0);
+	private final AtomicLong treeMisses = new AtomicLong(0);
+	private final AtomicLong blobHits = new AtomicLong(0);
+	private final AtomicLong blobMisses = new AtomicLong(0);
+	private final AtomicLong bytesRead = new AtomicLong(0);
+	private final AtomicLong diffedCommits = new AtomicLong(0);
+	private final AtomicLong diffBlobsLoaded = new AtomicLong(0);
+	private final AtomicLong diffBytesLoaded = new AtomicLong(0);
+
+	public GitContext(Repository repository) {
+		this(repository, 0);
+	}
+
+	public GitContext(Repository repository, long blobCacheBytes) {
+		this(repository, blobCacheBytes, RenamePolicy.unbounded());
+	}
+
+	public GitContext(Repository repository, long blobCacheBytes, RenamePolicy renamePolicy) {
+		this(repository, blobCacheBytes, renamePolicy, JavaPathFilter.ALL_JAVA_FILES);
+	}
+
+	public GitContext(Repository repository, long blobCacheBytes, RenamePolicy renamePolicy, JavaPathFilter pathFilter) {
+		this.repository = repository;
+		this.renamePolicy = renamePolicy;
+		this.pathFilter = pathFilter;
+		this.blobIndex = new BlobIndex(pathFilter);
+		this.blobCacheBytes = blobCacheBytes;
+		this.treeIds = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ObjectId, ObjectId> eldest) {
+				return size() > TREE_CACHE_SIZE;
+			}
+		};
+
+		this.diffReader = repository.newObjectReader();
+		this.diffAlgorithm = DiffAlgorithm.getAlgorithm(repository.getConfig().getEnum(ConfigConstants.CONFIG_DIFF_SECTION, null,
+				ConfigConstants.CONFIG_KEY_ALGORITHM, DiffAlgorithm.SupportedAlgorithm.HISTOGRAM));
+
+		this.reader = repository.newObjectReader();
+	}
+
+	public Repository getRepository() { return repository; }
+
+	//Calculate the diff between the commit and its first parent in a single pass:
+	//the diff entries with renames detected, like a DiffFormatter with the path filter would report them, and the added and deleted lines of every changed java file
+	public CommitDiff calculateDiff(RevCommit commit) throws IOException {
+		RevCommit commitParent = commit.getParentCount() == 0 ? null : commit.getParent(0);
+		synchronized (diffReader) {
+			// all blobs of this commit are loaded once, the rename detection and the edit lists share them
+			ContentSource source = new CommitContentSource(ContentSource.create(diffReader));
+			ContentSource.Pair sources = new ContentSource.Pair(source, source);
+
+			CommitDiff diff = renamePolicy.detectRenames(commit.getName(), scan(commitParent, commit), repository, sources);
+			for (DiffEntry entry : diff.getEntries()) {
+				if (FileUtils.IsJavaFile(entry.getNewPath()) && entry.getChangeType() != DiffEntry.ChangeType.DELETE) {
+					List<Edit> editList = calculateEditList(entry, sources);
+					diff.addLineChanges(entry, RefactoringUtils.calculateLinesAdded(editList), RefactoringUtils.calculateLinesDeleted(editList));
+				}
+			}
+			diffedCommits.incrementAndGet();
+			return diff;
+		}
+	}
+
+	//Find all changed files matching the path filter between both commits, like DiffFormatter.scan before it detects the renames
+	private List<DiffEntry> scan(RevCommit commitParent, RevCommit commit) throws IOException {
+		try (TreeWalk treeWalk = createDiffWalk(commitParent, commit, pathFilter)) {
+			return DiffEntry.scan(treeWalk);
+		}
+	}
+
+	//Does the commit change any java file compared to its first parent?
+	//All java files are considered, not only those matching the path filter, as RefactoringMiner analyzes all of them
+	//The tree walk stops at the first changed java file, thus no blob is loaded and unchanged subtrees are skipped
+	public boolean touchesJavaFiles(RevCommit commit) throws IOException {
+		RevCommit commitParent = commit.getParentCount() == 0 ? null : commit.getParent(0);
+		synchronized (diffReader) {
+			try (TreeWalk treeWalk = createDiffWalk(commitParent, commit, JavaPathFilter.ALL_JAVA_FILES)) {
+				return treeWalk.next();
+			}
+		}
+	}
+
+	//Create a recursive tree walk over all files matching the filter, that differ between both commits
+	private TreeWalk createDiffWalk(RevCommit commitParent, RevCommit commit, TreeFilter filter) throws IOException {
+		TreeWalk treeWalk = new TreeWalk(repository, diffReader);
+		try (RevWalk walk = new RevWalk(diffReader)) {
+			if (commitParent == null) {
+				treeWalk.addTree(new EmptyTreeIterator());
+			} else {
+				RevTree parentTree = walk.parseTree(commitParent);
+				treeWalk.addTree(new CanonicalTreeParser(null, diffReader, parentTree));
+			}
+			treeWalk.addTree(new CanonicalTreeParser(null, diffReader, walk.parseTree(commit)));
+		} catch (IOException e) {
+			treeWalk.close();
+			throw e;
+		}
+		treeWalk.setRecursive(true);
+		treeWalk.setFilter(AndTreeFilter.create(filter, TreeFilter.ANY_DIFF));
+		return treeWalk;
+	}
+
+	//Calculate the edits of a diff entry, like DiffFormatter.toFileHeader(entry).toEditList()
+	private List<Edit> calculateEditList(DiffEntry entry, ContentSource.Pair sources) throws IOException {
+		// content not changed, e.g. a pure rename or a change of the mode only
+		// the ids are never null, an added or deleted file has the zero id on the missing side and is diffed against an empty text
+		if (entry.getChangeType() != DiffEntry.ChangeType.ADD && entry.getChangeType() != DiffEntry.ChangeType.DELETE
+				&& entry.getOldId().equals(entry.getNewId()))
+			return new ArrayList<>();
+
+		try {
+			RawText oldText = open(DiffEntry.Side.OLD, entry, sources);
+			RawText newText = open(DiffEntry.Side.NEW, entry, sources);
+			return diffAlgorithm.diff(RawTextComparator.DEFAULT, oldText, newText);
+		} catch (BinaryBlobException e) {
+			// binary files differ, without any edits
+			return new ArrayList<>();
+		}
+	}
+
+	private RawText open(DiffEntry.Side side, DiffEntry entry, ContentSource.Pair sources) throws IOException, BinaryBlobException {
+		FileMode mode = entry.getMode(side);
+		if (mode == FileMode.GITLINK)
+			return new RawText(Constants.encodeASCII("Subproject commit " + entry.getId(side).name() + "\n"));
+		if (mode == FileMode.MISSING || mode.getObjectType() != Constants.OBJ_BLOB)
+			return RawText.EMPTY_TEXT;
+		return RawText.load(sources.open(side, entry), PackConfig.DEFAULT_BIG_FILE_THRESHOLD);
+	}
+
+	//Add the commit to the blob index, the commits have to be indexed in the order they are mined
+	public void indexCommit(RevCommit commit, List<DiffEntry> entries) throws IOException {
+		synchronized (reader) {
+			blobIndex.index(commit, entries, reader);
+		}
+	}
+
+	//Only keep the given commits and the last indexed commit in the blob index, see BlobIndex.retainOnly
+	public void retainIndexedCommits(Set<String> commitIds) {
+		synchronized (reader) {
+			blobIndex.retainOnly(commitIds);
+		}
+	}
+
+	//Find the id of the blob of the file in the given commit
+	public ObjectId findBlobId(String commit, String filepath) throws IOException {
+		return findBlobId(ObjectId.fromString(commit), filepath);
+	}
+
+	public ObjectId findBlobId(AnyObjectId commit, String filepath) throws IOException {
+		synchronized (reader) {
+			ObjectId blobId = blobIndex.find(commit, filepath);
+			if (blobId != null) {
+				indexHits.incrementAndGet();
+				return blobId;
+			}
+		}
+
+		ObjectId treeId = findTreeId(commit);
+		synchronized (reader) {
+			try (TreeWalk treeWalk = TreeWalk.forPath(reader, filepath, treeId)) {
+				if (treeWalk != null) {
+					return treeWalk.getObjectId(0);
+				} else {
+					throw new IllegalArgumentException("No path found in " + commit.getName() + ": " + filepath);
+				}
+			}
+		}
+	}
+
+	//Find the id of the root tree of the commit, the commit is only parsed if its tree id is not cached
+	private ObjectId findTreeId(AnyObjectId commit) throws IOException {
+		synchronized (treeIds) {
+			ObjectId treeId = treeIds.get(commit);
+			if (treeId != null) {
+				treeHits.incrementAndGet();
+				return treeId;
+			}
+		}
+
+		treeMisses.incrementAndGet();
+		ObjectId treeId;
+		synchronized (reader) {
+			try (RevWalk walk = new RevWalk(reader)) {
+				walk.setRetainBody(false);
+				treeId = walk.parseCommit(commit).getTree().copy();
+			}
+		}
+		synchronized (treeIds) {
+			treeIds.put(commit.copy(), treeId);
+		}
+		return treeId;
+	}
+
+	//Read the content of the blob, recently read blobs are not read from the object database again
+	public String readFile(ObjectId blobId) throws IOException {
+		synchronized (blobs) {
+			CachedBlob blob = blobs.get(blobId);
+			if (blob != null) {
+				blobHits.incrementAndGet();
+				return blob.content;
+			}
+		}
+
+		blobMisses.incrementAndGet();
+		byte[] bytes;
+		synchronized (reader) {
+			bytes = reader.open(blobId, Constants.OBJ_BLOB).getBytes();
+		}
+		bytesRead.addAndGet(bytes.length);
+		String content = new String(bytes, StandardCharsets.UTF_8);
+		cacheBlob(blobId, content, bytes.length);
+		return content;
+	}
+
+	//Add the blob to the cache and evict the least recently used blobs, until all fit into the budget
+	private void cacheBlob(ObjectId blobId, String content, long size) {
+		if (size > blobCacheBytes)
+			return;
+
+		synchronized (blobs) {
+			CachedBlob replaced = blobs.put(blobId.copy(), new CachedBlob(content, size));
+			cachedBytes += size - (replaced == null ? 0 : replaced.size);
+
+			Iterator<CachedBlob> eldest = blobs.values().iterator();
+			while (cachedBytes > blobCacheBytes && eldest.hasNext()) {
+				cachedBytes -= eldest.next().size;
+				eldest.remove();
+			}
+		}
+	}
+
+	public String readFile(String commit, String filepath) throws IOException {
+		return readFile(findBlobId(commit, filepath));
+	}
+
+	public String readFile(RevCommit commit, String filepath) throws IOException {
+		return readFile(findBlobId(commit, filepath));
+	}
+
+	public long getDiffBlobsLoaded() { return diffBlobsLoaded.get(); }
+
+	public long getDiffBytesLoaded() { return diffBytesLoaded.get(); }
+
+	//Number of commits, whose rename detection used the escape hatch of the rename policy
+	public long getRenameEscapeHatches() {
+		synchronized (diffReader) {
+			return renamePolicy.getEscapeHatches();
+		}
+	}
+
+	public long getBlobHits() { return blobHits.get(); }
+
+	public long getBlobMisses() { return blobMisses.get(); }
+
+	public String statistics() {
+		long blobLookups = blobHits.get() + blobMisses.get();
+		double blobHitRatio = blobLookups == 0 ? 0 : blobHits.get() * 100.0 / blobLookups;
+		long treeLookups = treeHits.get() + treeMisses.get();
+		double treeHitRatio = treeLookups == 0 ? 0 : treeHits.get() * 100.0 / treeLookups;
+		String renameStatistics;
+		synchronized (diffReader) {
+			renameStatistics = renamePolicy.statistics();
+		}
+		String indexStatistics;
+		synchronized (reader) {
+			indexStatistics = blobIndex.statistics();
+		}
+		synchronized (blobs) {
+			return String.format("Diffs: %d commits diffed with %s, %d blobs loaded with %.2f MB\n", diffedCommits.get(), pathFilter,
+					diffBlobsLoaded.get(), diffBytesLoaded.get() / 1024.0 / 1024.0) + renameStatistics + "\n" +
+					indexStatistics + String.format(", %d files found in the index\n", indexHits.get()) +
+					String.format("Git objects: %d commits parsed (%d tree cache hits, %.2f%% hit ratio), %d blobs read with %.2f MB (%d blob cache hits, %.2f%% hit ratio), %d blobs with %.2f of %.2f MB cached",
+					treeMisses.get(), treeHits.get(), treeHitRatio, blobMisses.get(), bytesRead.get() / 1024.0 / 1024.0, blobHits.get(), blobHitRatio,
+					blobs.size(), cachedBytes / 1024.0 / 1024.0, blobCacheBytes / 1024.0 / 1024.0);
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized (diffReader) {
+			diffReader.close();
+		}
+		synchronized (reader) {
+			reader.close();
+		}
+	}
+
+	//Content source, that keeps every blob it loaded while a single commit is diffed
+	//Large blobs are streamed and not kept, like the object database would do it
+	private class CommitContentSource extends ContentSource {
+		private final ContentSource source;
+		private final Map<ObjectId, ObjectLoader> loaded = new HashMap<>();
+
+		private CommitContentSource(ContentSource source) {
+			this.source = source;
+		}
+
+		@Override
+		public long size(String path, ObjectId id) throws IOException {
+			ObjectLoader loader = loaded.get(id);
+			return loader != null ? loader.getSize() : source.size(path, id);
+		}
+
+		@Override
+		public ObjectLoader open(String path, ObjectId id) throws IOException {
+			ObjectLoader loader = loaded.get(id);
+			if (loader != null)
+				return loader;
+
+			diffBlobsLoaded.incrementAndGet();
+			loader = source.open(path, id);
+			if (loader.isLarge()) {
+				diffBytesLoaded.addAndGet(loader.getSize());
+				return loader;
+			}
+			diffBytesLoaded.addAndGet(loader.getSize());
+			loader = new ObjectLoader.SmallObject(loader.getType(), loader.getCachedBytes());
+			loaded.put(id.copy(), loader);
+			return loader;
+		}
+	}
+
+	private static class CachedBlob {
+		private final String content;
+		//size of the blob in the object database
+		private final long size;
+
+		private CachedBlob(String content, long size) {
+			this.content = content;
+			this.size = size;
+		}
+	}
+}
@@ -7,19 +7,14 @@ import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.JGitInternalException;
 import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.lib.Constants;
-import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevSort;
-import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.refactoringminer.api.Refactoring;
 
+import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -27,16 +22,24 @@ import static refactoringml.util.RefactoringUtils.refactoredFilesAndClasses;
 
 public class JGitUtils {
 	private static final Logger log = LogManager.getLogger(JGitUtils.class);
-	private static DiffFormatter diffFormatter;
 
-	public static int numberOfCommits(Git git) throws GitAPIException {
-		Iterable<RevCommit> commits = git.log().call();
-		int count = 0;
-		for(RevCommit ignored : commits) {
-			count++;
+	//Clone the repository without a working tree, or open it, if it already exists at the path
+	//An existing repository can have a working tree, it is not used though
+	public static Repository cloneBareIfNotExists(String path, String gitUrl) throws GitAPIException, IOException {
+		File folder = new File(path);
+		if (folder.exists()) {
+			File dotGit = new File(folder, Constants.DOT_GIT);
+			return new FileRepositoryBuilder().setGitDir(dotGit.exists() ? dotGit : folder).readEnvironment().build();
 		}
 
-		return count;
+		log.info("Cloning " + gitUrl + " without a working tree to " + path);
+		return Git.cloneRepository()
+				.setDirectory(folder)
+				.setURI(gitUrl)
+				.setCloneAllBranches(true)
+				.setBare(true)
+				.call()
+				.getRepository();
 	}
 
 	public static String getHead(Git git) throws IOException {
@@ -47,25 +50,6 @@ public class JGitUtils {
 		return git.getRepository().getBranch();
 	}
 
-	public static String readFileFromGit (Repository repo, RevCommit commit, String filepath) throws IOException {
-		try (TreeWalk walk = TreeWalk.forPath(repo, filepath, commit.getTree())) {
-			if (walk != null) {
-				byte[] bytes = repo.open(walk.getObjectId(0)).getBytes();
-				return new String(bytes, StandardCharsets.UTF_8);
-			} else {
-				throw new IllegalArgumentException("No path found in " + commit.getName() + ": " + filepath);
-			}
-		}
-	}
-
-	public static String readFileFromGit (Repository repo, String commit, String filepath) throws IOException {
-		ObjectId commitId = ObjectId.fromString(commit);
-		RevWalk revWalk = new RevWalk(repo);
-		RevCommit revCommit = revWalk.parseCommit( commitId );
-
-		return readFileFromGit(repo, revCommit, filepath);
-	}
-
 	public static String extractProjectNameFromGitUrl(String gitUrl) {
 		String[] splittedGitUrl = gitUrl.split("/");
 		return splittedGitUrl[splittedGitUrl.length - 1].replace(".git", "");
@@ -79,13 +63,6 @@ public class JGitUtils {
 		return commitTime;
 	}
 
-	public static RevWalk getReverseWalk(Repository repo, String mainBranch) throws IOException {
-		RevWalk walk = new RevWalk(repo);
-		walk.markStart(walk.parseCommit(repo.resolve(mainBranch)));
-		walk.sort(RevSort.REVERSE);
-		return walk;
-	}
-
 	//Generate the commit url with repository url and the commit ID
 	//Local repositories without remote are formatted as: @local/repository/commit Id
 	//TODO: evaluate if this pattern works for other repo hosters as well, e.g. BitBucket
@@ -112,23 +89,6 @@ public class JGitUtils {
 		return map;
 	}
 
-	//get a diff-formater for the given repository
-	public static DiffFormatter getDiffFormater(){
-		return diffFormatter;
-	}
-
-	public static void createDiffFormatter(Repository repository){
-		diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE);
-		diffFormatter.setRepository(repository);
-		diffFormatter.setDetectRenames(true);
-	}
-
-	//Calculate the JGit diff-entries for the given repository and commit
-	public static List<DiffEntry> calculateDiffEntries(RevCommit commit) throws IOException {
-		RevCommit commitParent = commit.getParentCount() == 0 ? null : commit.getParent(0);
-		return getDiffFormater().scan(commitParent, commit);
-	}
-
 	//all renames detected by JGit
 	// returns the filename before and after the rename
 	public static Set<ImmutablePair<String, String>> getJGitRenames(List<DiffEntry> entries){
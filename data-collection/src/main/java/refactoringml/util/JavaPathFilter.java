@@ -0,0 +1,92 @@
+package refactoringml.util;
+
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static refactoringml.util.FileUtils.IsJavaFile;
+
+/*
+Tree filter for the files the miner analyzes: all java files, optionally restricted by include and exclude globs, e.g. to exclude generated sources.
+The diffs of the GitContext only walk through the matching files,
+thus no other file is ever loaded or considered for the rename detection.
+Globs are matched against the path relative to the root of the repository, a directory matching an exclude glob is skipped completely.
+ */
+public class JavaPathFilter extends TreeFilter {
+	//all java files of the repository
+	public static final JavaPathFilter ALL_JAVA_FILES = new JavaPathFilter(Collections.emptyList(), Collections.emptyList());
+
+	private final List<String> includeGlobs;
+	private final List<String> excludeGlobs;
+	private final List<PathMatcher> includes;
+	private final List<PathMatcher> excludes;
+
+	public JavaPathFilter(List<String> includeGlobs, List<String> excludeGlobs) {
+		this.includeGlobs = includeGlobs;
+		this.excludeGlobs = excludeGlobs;
+		this.includes = toMatchers(includeGlobs);
+		this.excludes = toMatchers(excludeGlobs);
+	}
+
+	//Create the filter from two comma separated lists of globs, e.g. the diffIncludePaths and diffExcludePaths properties
+	public static JavaPathFilter fromGlobs(String includeGlobs, String excludeGlobs) {
+		return new JavaPathFilter(splitGlobs(includeGlobs), splitGlobs(excludeGlobs));
+	}
+
+	private static List<String> splitGlobs(String globs) {
+		if (globs == null)
+			return Collections.emptyList();
+		return Arrays.stream(globs.split(",")).map(String::trim).filter(glob -> !glob.isEmpty()).collect(Collectors.toList());
+	}
+
+	private static List<PathMatcher> toMatchers(List<String> globs) {
+		return globs.stream().map(glob -> FileSystems.getDefault().getPathMatcher("glob:" + glob)).collect(Collectors.toList());
+	}
+
+	//Is the file analyzed by the miner? A file in an excluded directory is excluded as well
+	public boolean matches(String path) {
+		if (!IsJavaFile(path) || matchesAny(excludes, path))
+			return false;
+		for (int slash = path.indexOf('/'); slash > 0 && !excludes.isEmpty(); slash = path.indexOf('/', slash + 1)) {
+			if (matchesAny(excludes, path.substring(0, slash)))
+				return false;
+		}
+		return includes.isEmpty() || matchesAny(includes, path);
+	}
+
+	private static boolean matchesAny(List<PathMatcher> matchers, String path) {
+		if (matchers.isEmpty())
+			return false;
+		return matchers.stream().anyMatch(matcher -> matcher.matches(Paths.get(path)));
+	}
+
+	@Override
+	public boolean include(TreeWalk walker) {
+		String path = walker.getPathString();
+		if (walker.isSubtree())
+			return !matchesAny(excludes, path);
+		return matches(path);
+	}
+
+	@Override
+	public boolean shouldBeRecursive() {
+		return true;
+	}
+
+	//the filter has no state, thus it can be shared by multiple tree walks
+	@Override
+	public TreeFilter clone() {
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "JavaPathFilter{includes=" + includeGlobs + ", excludes=" + excludeGlobs + "}";
+	}
+}
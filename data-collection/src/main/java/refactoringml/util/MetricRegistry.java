@@ -0,0 +1,110 @@
+package refactoringml.util;
+
+import com.github.mauricioaniche.ck.CKClassResult;
+import com.github.mauricioaniche.ck.CKMethodResult;
+import org.eclipse.jgit.lib.ObjectId;
+import refactoringml.db.ClassMetric;
+import refactoringml.db.CommitBatch;
+import refactoringml.db.MethodMetric;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import static refactoringml.util.CKUtils.extractClassMetrics;
+import static refactoringml.util.CKUtils.extractMethodMetrics;
+
+/*
+Bounded LRU registry of the ClassMetric and MethodMetric rows persisted in this run, so the metrics of a class or method version are only stored once.
+A class version is identified by the blob id of its file and the name of the class, a method version additionally by the name of the method.
+All instances of the same version, e.g. the variables and methods of a stable class or the same class at several commit thresholds,
+reference the same row by its id.
+Within a commit batch, a new metric is shared by all instances of the batch. It is only registered once the batch was committed,
+thus a rolled back transaction never leaves a reference to a missing row behind.
+An evicted version is stored again the next time it is needed.
+ */
+public class MetricRegistry {
+	private final int maxSize;
+	private final Map<String, Object> metrics;
+
+	//statistics
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong batchHits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+
+	public MetricRegistry(int maxSize) {
+		this.maxSize = maxSize;
+		this.metrics = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+				return size() > MetricRegistry.this.maxSize;
+			}
+		};
+	}
+
+	//The class metrics of the class in the file version, either a persisted row, the new row of the batch or a new one added to the batch
+	public ClassMetric classMetric(ObjectId blobId, CKClassResult ck, CommitBatch batch) {
+		return metric("class:" + blobId.getName() + "/" + ck.getClassName(), batch, () -> extractClassMetrics(ck), ClassMetric::getId);
+	}
+
+	//The method metrics of the method of the class in the file version, shared like the class metrics
+	public MethodMetric methodMetric(ObjectId blobId, CKClassResult ck, CKMethodResult method, CommitBatch batch) {
+		return metric("method:" + blobId.getName() + "/" + ck.getClassName() + "#" + method.getMethodName(), batch, () -> extractMethodMetrics(method), MethodMetric::getId);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T metric(String key, CommitBatch batch, Supplier<T> create, ToLongFunction<T> id) {
+		Object persisted;
+		synchronized (metrics) {
+			persisted = metrics.get(key);
+		}
+		if(persisted != null) {
+			hits.incrementAndGet();
+			return (T) persisted;
+		}
+
+		Object shared = batch.getShared(key);
+		if(shared != null) {
+			batchHits.incrementAndGet();
+			return (T) shared;
+		}
+
+		misses.incrementAndGet();
+		T metric = create.get();
+		batch.putShared(key, metric);
+		// the metric has its id once the batch was committed, unless no instance of the batch referenced it
+		batch.afterPersist(() -> {
+			if(id.applyAsLong(metric) != 0)
+				register(key, metric);
+		});
+		return metric;
+	}
+
+	private void register(String key, Object metric) {
+		if(maxSize <= 0)
+			return;
+		synchronized (metrics) {
+			metrics.put(key, metric);
+		}
+	}
+
+	public long getHits() { return hits.get(); }
+
+	public long getBatchHits() { return batchHits.get(); }
+
+	public long getMisses() { return misses.get(); }
+
+	public int size() {
+		synchronized (metrics) {
+			return metrics.size();
+		}
+	}
+
+	public String statistics() {
+		long lookups = getHits() + getBatchHits() + getMisses();
+		double reuseRatio = lookups == 0 ? 0 : (getHits() + getBatchHits()) * 100.0 / lookups;
+		return String.format("Metric registry: %d class and method metrics stored, %d reused from earlier commits, %d shared within a commit (%.2f%% reused), %d of %d entries used",
+				getMisses(), getHits(), getBatchHits(), reuseRatio, size(), maxSize);
+	}
+}
@@ -0,0 +1,220 @@
+package refactoringml.util;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static refactoringml.util.JGitUtils.extractProjectNameFromGitUrl;
+import static refactoringml.util.PropertiesUtils.getProperty;
+
+/*
+Bare mirrors of all mined repositories, kept on disk across runs of the worker, so a project is only downloaded once.
+Every mirror is keyed by its git url and a repeated run only fetches the new objects.
+The repositories to mine are local clones of a mirror: they borrow all objects of the mirror via git alternates,
+thus creating a clone copies no objects, only the refs.
+The total size of all mirrors is bounded by a quota, once it is exceeded, the least recently used mirrors are evicted.
+Mirrors in use by a running project are never evicted.
+The store is shared by all projects mined in this JVM, like the CKService.
+ */
+public class MirrorStore {
+	private static final Logger log = LogManager.getLogger(MirrorStore.class);
+	private static MirrorStore instance;
+
+	//suffix of all mirror directories in the root
+	private static final String MIRROR_SUFFIX = ".git";
+	//file in every mirror, whose modification time is the last time the mirror was used
+	private static final String LAST_USED_FILE = "mirror-last-used";
+
+	//directory of all mirrors
+	private final File root;
+	//max size of all mirrors in bytes
+	private final long quotaBytes;
+	//number of running projects per mirror, guarded by itself
+	private final Map<String, Integer> usages = new HashMap<>();
+	//one lock per mirror, so a mirror is only cloned or fetched by one project at a time
+	private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+	//statistics
+	private final AtomicLong clones = new AtomicLong(0);
+	private final AtomicLong fetches = new AtomicLong(0);
+	private final AtomicLong evictions = new AtomicLong(0);
+
+	public MirrorStore(File root, long quotaBytes) {
+		this.root = root;
+		this.quotaBytes = quotaBytes;
+		root.mkdirs();
+	}
+
+	//The store shared by all projects mined in this JVM, configured with mirrorStorePath and mirrorStoreQuota
+	//Returns null if no mirror store path is configured, then every project is cloned directly from its url
+	public static synchronized MirrorStore getInstance() {
+		String path = getProperty("mirrorStorePath");
+		if(instance == null && path != null && !path.trim().isEmpty())
+			instance = new MirrorStore(new File(path.trim()), Long.parseLong(getProperty("mirrorStoreQuota")) * 1024 * 1024);
+		return instance;
+	}
+
+	//Create a local clone of the repository at the path, the mirror of the repository is created or updated first
+	//The mirror is in use until it is released
+	public Repository cloneFromMirror(String gitUrl, File path, boolean bare) throws IOException, GitAPIException {
+		String name = mirrorName(gitUrl);
+		acquire(name);
+		try {
+			File mirrorDir = new File(root, name);
+			synchronized (locks.computeIfAbsent(name, key -> new Object())) {
+				updateMirror(gitUrl, mirrorDir);
+			}
+			Repository clone = createLocalClone(mirrorDir, path, bare);
+			evictLeastRecentlyUsed();
+			return clone;
+		} catch (IOException | GitAPIException | RuntimeException e) {
+			release(gitUrl);
+			throw e;
+		}
+	}
+
+	//The project finished using the mirror of the repository
+	public void release(String gitUrl) {
+		String name = mirrorName(gitUrl);
+		// only a complete mirror is touched, otherwise a failed first clone would be fetched into by later runs
+		// it is touched while still in use, so it cannot be evicted in between
+		File mirrorDir = new File(root, name);
+		if (new File(mirrorDir, LAST_USED_FILE).exists())
+			touch(mirrorDir);
+		synchronized (usages) {
+			usages.merge(name, -1, Integer::sum);
+			usages.remove(name, 0);
+		}
+	}
+
+	private void acquire(String name) {
+		synchronized (usages) {
+			usages.merge(name, 1, Integer::sum);
+		}
+	}
+
+	//Fetch the new objects of an existing mirror, or clone the repository to a new one
+	private void updateMirror(String gitUrl, File mirrorDir) throws IOException, GitAPIException {
+		if (new File(mirrorDir, LAST_USED_FILE).exists()) {
+			long startTime = System.currentTimeMillis();
+			try (Repository mirror = new FileRepositoryBuilder().setGitDir(mirrorDir).setBare().build();
+				 Git git = Git.wrap(mirror)) {
+				git.fetch().setRemoveDeletedRefs(true).call();
+			}
+			fetches.incrementAndGet();
+			log.info("Fetched " + gitUrl + " into its mirror " + mirrorDir + " in " + (System.currentTimeMillis() - startTime) + " milliseconds.");
+		} else {
+			// a mirror without the last used file was not completely cloned, e.g. because the worker crashed
+			org.apache.commons.io.FileUtils.deleteDirectory(mirrorDir);
+			long startTime = System.currentTimeMillis();
+			try {
+				Git.cloneRepository().setURI(gitUrl).setDirectory(mirrorDir).setBare(true).setCloneAllBranches(true).call().close();
+			} catch (GitAPIException | RuntimeException e) {
+				org.apache.commons.io.FileUtils.deleteQuietly(mirrorDir);
+				throw e;
+			}
+			clones.incrementAndGet();
+			log.info("Cloned " + gitUrl + " into the mirror " + mirrorDir + " in " + (System.currentTimeMillis() - startTime) + " milliseconds.");
+		}
+		touch(mirrorDir);
+	}
+
+	//Create a repository at the path, that borrows all objects from the mirror and has the same refs
+	//Without bare, the head is checked out into the path as well
+	private Repository createLocalClone(File mirrorDir, File path, boolean bare) throws IOException, GitAPIException {
+		File gitDir = bare ? path : new File(path, Constants.DOT_GIT);
+		try (Repository clone = buildRepository(gitDir, path, bare)) {
+			clone.create(bare);
+		}
+		File alternates = new File(gitDir, "objects/info/alternates");
+		alternates.getParentFile().mkdirs();
+		Files.write(alternates.toPath(), (new File(mirrorDir, "objects").getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+
+		Repository clone = buildRepository(gitDir, path, bare);
+		try (Repository mirror = new FileRepositoryBuilder().setGitDir(mirrorDir).setBare().build()) {
+			for (Ref ref : mirror.getRefDatabase().getRefsByPrefix(Constants.R_REFS)) {
+				if (ref.isSymbolic() || ref.getObjectId() == null)
+					continue;
+				RefUpdate update = clone.updateRef(ref.getName());
+				update.setNewObjectId(ref.getObjectId());
+				update.setForceUpdate(true);
+				update.update();
+			}
+			Ref head = mirror.exactRef(Constants.HEAD);
+			if (head != null && head.isSymbolic())
+				clone.updateRef(Constants.HEAD).link(head.getTarget().getName());
+		}
+		if (!bare)
+			Git.wrap(clone).reset().setMode(ResetCommand.ResetType.HARD).call();
+		return clone;
+	}
+
+	private Repository buildRepository(File gitDir, File workTree, boolean bare) throws IOException {
+		FileRepositoryBuilder builder = new FileRepositoryBuilder().setGitDir(gitDir);
+		return bare ? builder.setBare().build() : builder.setWorkTree(workTree).build();
+	}
+
+	//Delete the least recently used mirrors, that are not in use, until all mirrors fit into the quota
+	private void evictLeastRecentlyUsed() throws IOException {
+		synchronized (usages) {
+			File[] mirrors = root.listFiles(file -> file.isDirectory() && file.getName().endsWith(MIRROR_SUFFIX));
+			if (mirrors == null)
+				return;
+
+			Map<File, Long> sizes = new HashMap<>();
+			long totalSize = 0;
+			for (File mirror : mirrors) {
+				long size = org.apache.commons.io.FileUtils.sizeOfDirectory(mirror);
+				sizes.put(mirror, size);
+				totalSize += size;
+			}
+
+			Arrays.sort(mirrors, Comparator.comparingLong(MirrorStore::lastUsed));
+			for (int i = 0; i < mirrors.length && totalSize > quotaBytes; i++) {
+				if (usages.containsKey(mirrors[i].getName()))
+					continue;
+				org.apache.commons.io.FileUtils.deleteDirectory(mirrors[i]);
+				totalSize -= sizes.get(mirrors[i]);
+				evictions.incrementAndGet();
+				log.info("Evicted the mirror " + mirrors[i] + ", all mirrors use " + totalSize + " of " + quotaBytes + " bytes.");
+			}
+		}
+	}
+
+	private static long lastUsed(File mirror) {
+		return new File(mirror, LAST_USED_FILE).lastModified();
+	}
+
+	private static void touch(File mirrorDir) {
+		try {
+			org.apache.commons.io.FileUtils.touch(new File(mirrorDir, LAST_USED_FILE));
+		} catch (IOException e) {
+			log.error("Could not update the last use of the mirror " + mirrorDir, e);
+		}
+	}
+
+	//Directory name of the mirror of the repository, the hash keeps the names of projects with the same name apart
+	static String mirrorName(String gitUrl) {
+		String url = gitUrl.trim();
+		return extractProjectNameFromGitUrl(url).replaceAll("[^\\w.-]", "_") + "-" + DigestUtils.sha1Hex(url).substring(0, 12) + MIRROR_SUFFIX;
+	}
+
+	public String statistics() {
+		return String.format("Mirror store %s: %d mirrors cloned, %d fetched, %d evicted", root, clones.get(), fetches.get(), evictions.get());
+	}
+}
@@ -0,0 +1,161 @@
+package refactoringml.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.storage.file.WindowCacheStats;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+Sizes the caches JGit uses to read the packs of a repository, instead of the fixed defaults, which are tuned for small repositories:
+the window cache, that keeps parts of the pack files in memory, the use of memory mapped windows and the delta base cache of every reader.
+The sizes are derived from the size of all packs, including the packs of the alternates, e.g. the mirror of a local clone,
+and from the share of the max heap configured for the pack caches.
+Small repositories keep the JGit defaults. If the packs do not fit into their share of the heap, they are memory mapped,
+then the windows live outside of the heap and the operating system pages them in and out.
+The window cache of JGit is shared by the whole JVM and all projects mined in parallel read through it.
+Thus it is sized for the largest repository currently mined, with room for the pack files of all of them,
+and only installed again if that changes, i.e. when a larger repository is opened or the largest one is released.
+ */
+public class PackCacheConfig {
+	private static final Logger log = LogManager.getLogger(PackCacheConfig.class);
+
+	//defaults of JGit, never configure smaller caches than these
+	private static final WindowCacheConfig DEFAULTS = new WindowCacheConfig();
+	//window size for packs larger than LARGE_PACKS, fewer and larger reads for long delta chains
+	private static final int LARGE_WINDOW_SIZE = 64 * WindowCacheConfig.KB;
+	private static final long LARGE_PACKS = 1024L * WindowCacheConfig.MB;
+	//window size of memory mapped packs, a mapping is cheap, but the number of mappings is limited
+	private static final int MMAP_WINDOW_SIZE = WindowCacheConfig.MB;
+
+	//configuration currently installed in the JVM, guarded by PackCacheConfig.class
+	private static WindowCacheConfig installed;
+	//configurations of the repositories currently mined in the JVM, guarded by PackCacheConfig.class
+	private static final List<PackCacheConfig> inUse = new ArrayList<>();
+
+	private final long packBytes;
+	private final int packFiles;
+	private final WindowCacheConfig config;
+
+	private PackCacheConfig(long packBytes, int packFiles, WindowCacheConfig config) {
+		this.packBytes = packBytes;
+		this.packFiles = packFiles;
+		this.config = config;
+	}
+
+	//Size the caches for the packs of the repository and its alternates
+	//readers is the number of ObjectReaders reading in parallel, every one of them has its own delta base cache
+	public static PackCacheConfig forRepository(Repository repository, long maxHeap, int heapSharePercent, int readers) throws IOException {
+		List<File> packs = new ArrayList<>();
+		File objects = new File(repository.getDirectory(), "objects");
+		collectPacks(objects, packs);
+		File alternates = new File(objects, "info/alternates");
+		if (alternates.exists()) {
+			for (String alternate : Files.readAllLines(alternates.toPath(), StandardCharsets.UTF_8)) {
+				if (!alternate.trim().isEmpty() && !alternate.startsWith("#"))
+					collectPacks(objects.toPath().resolve(alternate.trim()).toFile(), packs);
+			}
+		}
+		long packBytes = packs.stream().mapToLong(File::length).sum();
+		return forPacks(packBytes, packs.size(), maxHeap, heapSharePercent, readers);
+	}
+
+	//Size the caches for packFiles packs with packBytes in total
+	public static PackCacheConfig forPacks(long packBytes, int packFiles, long maxHeap, int heapSharePercent, int readers) {
+		if (heapSharePercent <= 0 || heapSharePercent >= 100 || readers <= 0)
+			throw new IllegalArgumentException("The heap share must be a percentage and there must be a reader: " + heapSharePercent + ", " + readers);
+		long budget = maxHeap * heapSharePercent / 100;
+
+		WindowCacheConfig config = new WindowCacheConfig();
+		boolean mmap = packBytes > budget;
+		config.setPackedGitMMAP(mmap);
+		if (mmap) {
+			// map all packs, the mapped windows do not count against the heap
+			config.setPackedGitWindowSize(MMAP_WINDOW_SIZE);
+			config.setPackedGitLimit(Math.max(packBytes, DEFAULTS.getPackedGitLimit()));
+		} else {
+			config.setPackedGitWindowSize(packBytes >= LARGE_PACKS ? LARGE_WINDOW_SIZE : DEFAULTS.getPackedGitWindowSize());
+			config.setPackedGitLimit(Math.max(packBytes, DEFAULTS.getPackedGitLimit()));
+		}
+		// the delta bases of 1/64 of the packs, but at most half of the heap budget for all readers together
+		long deltaBaseCache = Math.min(packBytes / 64, budget / 2 / readers);
+		config.setDeltaBaseCacheLimit((int) Math.min(Integer.MAX_VALUE, Math.max(deltaBaseCache, DEFAULTS.getDeltaBaseCacheLimit())));
+		config.setPackedGitOpenFiles(Math.max(DEFAULTS.getPackedGitOpenFiles(), packFiles + 32));
+		return new PackCacheConfig(packBytes, packFiles, config);
+	}
+
+	//The repository is mined from now on, the caches of the JVM are sized for the largest repository mined
+	public void install() {
+		synchronized (PackCacheConfig.class) {
+			inUse.add(this);
+			installLargest();
+		}
+	}
+
+	//The repository is no longer mined, the caches of the JVM are sized for the largest of the remaining ones
+	public void release() {
+		synchronized (PackCacheConfig.class) {
+			if (inUse.remove(this) && !inUse.isEmpty())
+				installLargest();
+		}
+	}
+
+	//Install the configuration of the largest repository in use, with room for the pack files of all of them, unless it is already installed
+	private static void installLargest() {
+		PackCacheConfig largest = inUse.stream().max(Comparator.comparingLong(PackCacheConfig::getPackBytes)).get();
+		WindowCacheConfig config = new WindowCacheConfig();
+		config.setPackedGitMMAP(largest.config.isPackedGitMMAP());
+		config.setPackedGitWindowSize(largest.config.getPackedGitWindowSize());
+		config.setPackedGitLimit(largest.config.getPackedGitLimit());
+		config.setDeltaBaseCacheLimit(largest.config.getDeltaBaseCacheLimit());
+		int packFiles = inUse.stream().mapToInt(used -> used.packFiles).sum();
+		config.setPackedGitOpenFiles(Math.max(DEFAULTS.getPackedGitOpenFiles(), packFiles + 32));
+
+		if (installed != null && sameSizes(installed, config))
+			return;
+		config.install();
+		installed = config;
+		log.info("Configured the pack caches for the largest of " + inUse.size() + " repositories in use, " + largest.describe() +
+				", " + config.getPackedGitOpenFiles() + " open files for all of them");
+	}
+
+	//The configuration currently installed in the JVM, or null if none was installed yet
+	public static synchronized WindowCacheConfig getInstalled() { return installed; }
+
+	private static boolean sameSizes(WindowCacheConfig a, WindowCacheConfig b) {
+		return a.getPackedGitLimit() == b.getPackedGitLimit() &&
+				a.getPackedGitWindowSize() == b.getPackedGitWindowSize() &&
+				a.isPackedGitMMAP() == b.isPackedGitMMAP() &&
+				a.getDeltaBaseCacheLimit() == b.getDeltaBaseCacheLimit() &&
+				a.getPackedGitOpenFiles() == b.getPackedGitOpenFiles();
+	}
+
+	private static void collectPacks(File objects, List<File> packs) {
+		File[] files = new File(objects, "pack").listFiles((dir, name) -> name.endsWith(".pack"));
+		if (files != null)
+			packs.addAll(List.of(files));
+	}
+
+	public long getPackBytes() { return packBytes; }
+
+	public WindowCacheConfig getConfig() { return config; }
+
+	private String describe() {
+		return String.format("%d packs with %.2f MB: window cache of %.2f MB with %d KB windows%s, delta base cache of %.2f MB per reader, %d open files",
+				packFiles, packBytes / 1024.0 / 1024.0, config.getPackedGitLimit() / 1024.0 / 1024.0, config.getPackedGitWindowSize() / 1024,
+				config.isPackedGitMMAP() ? " (memory mapped)" : "", config.getDeltaBaseCacheLimit() / 1024.0 / 1024.0, config.getPackedGitOpenFiles());
+	}
+
+	//JGit only counts the bytes and files, that the window cache currently holds open
+	public String statistics() {
+		return "Pack caches for " + describe() +
+				String.format("\nWindow cache: %.2f MB in %d pack files opened", WindowCacheStats.getOpenBytes() / 1024.0 / 1024.0, WindowCacheStats.getOpenFiles());
+	}
+}
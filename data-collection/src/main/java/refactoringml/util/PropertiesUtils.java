@@ -12,18 +12,20 @@ public class PropertiesUtils {
     private static Properties configProperties;
     private static String configName = "/config.properties";
 
-    private static Properties fetchProperties(){
+    //synchronized, as multiple projects can be mined at the same time
+    private static synchronized Properties fetchProperties(){
         if(configProperties!= null)
             return configProperties;
 
         InputStream in = PropertiesUtils.class.getResourceAsStream(configName);
-        configProperties = new Properties();
+        Properties properties = new Properties();
         try{
-            configProperties.load(in);
+            properties.load(in);
         } catch (Exception e) {
             log.error(e.getClass().getCanonicalName() + " while loading config file from: " + configName, e);
             throw new RuntimeException("Could not load config properties");
         }
+        configProperties = properties;
         return configProperties;
     }
 
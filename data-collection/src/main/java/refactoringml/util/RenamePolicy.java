@@ -0,0 +1,109 @@
+package refactoringml.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.diff.ContentSource;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import java.io.IOException;
+import java.util.List;
+
+/*
+Bounds the rename detection of JGit, so a commit with thousands of added and deleted files, e.g. vendoring or reformatting a code base,
+does not stall the miner with the quadratic similarity scoring of all pairs.
+Renames with the exact same content are always detected first, they only compare the blob ids.
+The remaining added and deleted files are only scored for inexact renames,
+if there are at most renameLimit of them per side and all added and deleted files together are at most maxCandidateBytes large.
+Otherwise the escape hatch fires and only the exact renames are reported.
+This class is not thread safe, the GitContext calls it while holding its diff lock.
+ */
+public class RenamePolicy {
+	private static final Logger log = LogManager.getLogger(RenamePolicy.class);
+
+	//a negative limit tells JGit to only detect exact renames
+	private static final int EXACT_RENAMES_ONLY = -1;
+	//the default limit of JGit, see the diff.renameLimit option of git
+	public static final int DEFAULT_RENAME_LIMIT = 400;
+
+	//max number of added or deleted files, that are scored for inexact renames
+	private final int renameLimit;
+	//max size of all added and deleted files in bytes, before only exact renames are detected
+	private final long maxCandidateBytes;
+
+	//statistics
+	private long commits = 0;
+	private long overRenameLimit = 0;
+	private long escapeHatches = 0;
+	private long totalTime = 0;
+	private long maxTime = 0;
+	private String slowestCommit;
+
+	public RenamePolicy(int renameLimit, long maxCandidateBytes) {
+		if (renameLimit <= 0 || maxCandidateBytes <= 0)
+			throw new IllegalArgumentException("The rename limit and the max candidate size must be positive: " + renameLimit + ", " + maxCandidateBytes);
+		this.renameLimit = renameLimit;
+		this.maxCandidateBytes = maxCandidateBytes;
+	}
+
+	//The behavior of a DiffFormatter with enabled rename detection, without the size based escape hatch
+	public static RenamePolicy unbounded() {
+		return new RenamePolicy(DEFAULT_RENAME_LIMIT, Long.MAX_VALUE);
+	}
+
+	//Detect the renames among the diff entries of the commit, the time it took is stored in the returned CommitDiff
+	public CommitDiff detectRenames(String commit, List<DiffEntry> entries, Repository repository, ContentSource.Pair sources) throws IOException {
+		long startTime = System.currentTimeMillis();
+		RenameDetector renameDetector = new RenameDetector(repository);
+		boolean escape = exceedsCandidateSize(entries, sources);
+		renameDetector.setRenameLimit(escape ? EXACT_RENAMES_ONLY : renameLimit);
+		renameDetector.addAll(entries);
+		List<DiffEntry> renamedEntries = renameDetector.compute(sources, NullProgressMonitor.INSTANCE);
+		long time = System.currentTimeMillis() - startTime;
+
+		commits++;
+		totalTime += time;
+		if (time > maxTime) {
+			maxTime = time;
+			slowestCommit = commit;
+		}
+		if (escape) {
+			escapeHatches++;
+			log.info("Only detected exact renames in commit " + commit + ", because the added and deleted files exceed " + maxCandidateBytes + " bytes.");
+		} else if (renameDetector.isOverRenameLimit()) {
+			overRenameLimit++;
+			log.debug("Only detected exact renames in commit " + commit + ", because more than " + renameLimit + " files were added or deleted.");
+		}
+		return new CommitDiff(renamedEntries, time);
+	}
+
+	//Sum the sizes of all added and deleted files, until they exceed the max candidate size
+	private boolean exceedsCandidateSize(List<DiffEntry> entries, ContentSource.Pair sources) throws IOException {
+		if (maxCandidateBytes == Long.MAX_VALUE)
+			return false;
+
+		long candidateBytes = 0;
+		for (DiffEntry entry : entries) {
+			if (entry.getChangeType() == DiffEntry.ChangeType.ADD)
+				candidateBytes += sources.size(DiffEntry.Side.NEW, entry);
+			else if (entry.getChangeType() == DiffEntry.ChangeType.DELETE)
+				candidateBytes += sources.size(DiffEntry.Side.OLD, entry);
+
+			if (candidateBytes > maxCandidateBytes)
+				return true;
+		}
+		return false;
+	}
+
+	//Number of commits, whose added and deleted files were too large to score inexact renames
+	public long getEscapeHatches() { return escapeHatches; }
+
+	public long getOverRenameLimit() { return overRenameLimit; }
+
+	public String statistics() {
+		return String.format("Rename detection: %d commits in %d ms (max %d ms for commit %s), %d commits over the limit of %d files, %d commits over %.2f MB used the escape hatch",
+				commits, totalTime, maxTime, slowestCommit, overRenameLimit, renameLimit, escapeHatches,
+				maxCandidateBytes == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : maxCandidateBytes / 1024.0 / 1024.0);
+	}
+}
@@ -85,7 +85,6 @@ public abstract class IntegrationBaseTest {
 
 	@AfterAll
 	protected void afterApp() throws IOException {
-		db.close();
 		FileUtils.deleteDirectory(new File(tmpDir));
 		FileUtils.deleteDirectory(new File(outputDir));
 	}
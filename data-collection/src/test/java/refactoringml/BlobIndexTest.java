@@ -0,0 +1,126 @@
+package refactoringml;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import refactoringml.util.BlobIndex;
+import refactoringml.util.GitContext;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static refactoringml.util.FileUtils.createTmpDir;
+import static refactoringml.util.FileUtils.writeFile;
+
+//Test the BlobIndex class on a small repository
+public class BlobIndexTest {
+	private File repoDir;
+	private Git git;
+	private GitContext gitContext;
+	private ObjectReader reader;
+
+	@Before
+	public void createRepository() throws Exception {
+		repoDir = new File(createTmpDir());
+		git = Git.init().setDirectory(repoDir).call();
+		gitContext = new GitContext(git.getRepository());
+		reader = git.getRepository().newObjectReader();
+	}
+
+	@After
+	public void deleteRepository() throws IOException {
+		reader.close();
+		gitContext.close();
+		git.close();
+		FileUtils.deleteDirectory(repoDir);
+	}
+
+	//The index finds the same blobs as a tree walk, also for older commits, deleted and renamed files
+	@Test
+	public void followsHistory() throws Exception {
+		RevCommit first = commit("a/A.java", "class A { }");
+		RevCommit second = commit("b/B.java", "class B { }");
+		RevCommit third = commit("a/A.java", "class A { int x; }");
+		git.rm().addFilepattern("b/B.java").call();
+		RevCommit fourth = commit("c/C.java", "class B { }");
+
+		BlobIndex index = new BlobIndex();
+		for (RevCommit commit : new RevCommit[]{first, second, third, fourth})
+			index.index(commit, gitContext.calculateDiff(commit).getEntries(), reader);
+
+		assertSameBlob(index, first, "a/A.java");
+		assertSameBlob(index, third, "a/A.java");
+		assertSameBlob(index, second, "b/B.java");
+		assertSameBlob(index, fourth, "c/C.java");
+		assertMissing(index, fourth, "b/B.java");
+		assertMissing(index, first, "b/B.java");
+		// other files are not indexed
+		Assert.assertNull(index.find(first, "README.md"));
+	}
+
+	//A commit that does not follow the last indexed one is indexed by comparing the trees
+	@Test
+	public void switchesBranches() throws Exception {
+		RevCommit first = commit("a/A.java", "class A { }");
+		git.checkout().setCreateBranch(true).setName("other").call();
+		RevCommit otherBranch = commit("a/A.java", "class A { int y; }");
+		git.checkout().setName("master").call();
+		RevCommit mainBranch = commit("b/B.java", "class B { }");
+
+		BlobIndex index = new BlobIndex();
+		for (RevCommit commit : new RevCommit[]{first, otherBranch, mainBranch})
+			index.index(commit, gitContext.calculateDiff(commit).getEntries(), reader);
+
+		assertSameBlob(index, otherBranch, "a/A.java");
+		assertSameBlob(index, mainBranch, "a/A.java");
+		assertSameBlob(index, mainBranch, "b/B.java");
+		assertMissing(index, otherBranch, "b/B.java");
+	}
+
+	//Only retained commits and the last indexed commit can be looked up
+	@Test
+	public void retainOnly() throws Exception {
+		RevCommit first = commit("a/A.java", "class A { }");
+		RevCommit second = commit("a/A.java", "class A { int x; }");
+		RevCommit third = commit("a/A.java", "class A { int y; }");
+
+		BlobIndex index = new BlobIndex();
+		for (RevCommit commit : new RevCommit[]{first, second, third})
+			index.index(commit, gitContext.calculateDiff(commit).getEntries(), reader);
+		index.retainOnly(Collections.singleton(first.getName()));
+
+		Assert.assertEquals(2, index.getRetainedCommits());
+		assertSameBlob(index, first, "a/A.java");
+		assertSameBlob(index, third, "a/A.java");
+		Assert.assertNull(index.find(second, "a/A.java"));
+	}
+
+	private void assertSameBlob(BlobIndex index, RevCommit commit, String path) throws IOException {
+		try (TreeWalk treeWalk = TreeWalk.forPath(git.getRepository(), path, commit.getTree())) {
+			ObjectId expected = treeWalk.getObjectId(0);
+			Assert.assertEquals(expected, index.find(commit, path));
+		}
+	}
+
+	private void assertMissing(BlobIndex index, RevCommit commit, String path) {
+		try {
+			index.find(commit, path);
+			Assert.fail(path + " should not exist in " + commit.getName());
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private RevCommit commit(String fileName, String content) throws Exception {
+		writeFile(new File(repoDir, fileName).getAbsolutePath(), content);
+		git.add().addFilepattern(fileName).call();
+		return git.commit().setMessage("change " + fileName).call();
+	}
+}
@@ -0,0 +1,94 @@
+package refactoringml;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import refactoringml.db.*;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+//Test the BulkUnitOfWork class with the real mapping of the entities and a mocked JDBC connection
+public class BulkUnitOfWorkTest {
+	private Connection connection;
+	private PreparedStatement statement;
+	private SessionFactory sf;
+
+	@Before
+	public void createSessionFactory() throws Exception {
+		connection = mock(Connection.class);
+		statement = mock(PreparedStatement.class);
+		ResultSet nextId = mock(ResultSet.class);
+		when(connection.getMetaData()).thenReturn(mock(DatabaseMetaData.class));
+		when(connection.prepareStatement(anyString())).thenReturn(statement);
+		when(connection.prepareStatement(anyString(), anyInt(), anyInt())).thenReturn(statement);
+		when(statement.executeQuery()).thenReturn(nextId);
+		when(statement.executeUpdate()).thenReturn(1);
+		// the id table hands out the ids from 1 on
+		when(nextId.next()).thenReturn(true);
+		when(nextId.getLong(1)).thenReturn(1L);
+		ConnectionProvider connectionProvider = mock(ConnectionProvider.class);
+		when(connectionProvider.getConnection()).thenReturn(connection);
+
+		Configuration configuration = new Configuration();
+		configuration.setProperty(Environment.DIALECT, "org.hibernate.dialect.MySQL5InnoDBDialect");
+		configuration.setProperty("hibernate.temp.use_jdbc_metadata_defaults", "false");
+		configuration.getProperties().put(Environment.CONNECTION_PROVIDER, connectionProvider);
+		for (Class<?> entity : List.of(RefactoringCommit.class, StableCommit.class, Project.class, CommitMetaData.class, ClassMetric.class,
+				MethodMetric.class, VariableMetric.class, FieldMetric.class, ProcessMetrics.class))
+			configuration.addAnnotatedClass(entity);
+		sf = configuration.buildSessionFactory(new StandardServiceRegistryBuilder().applySettings(configuration.getProperties()).build());
+	}
+
+	@After
+	public void closeSessionFactory() {
+		sf.close();
+	}
+
+	//The associated entities are inserted before the instances, every table with a single multi-row insert
+	@Test
+	public void insertTablesInOrder() throws Exception {
+		Project project = TestEntities.project(42);
+		CommitMetaData commitMetaData = TestEntities.commitMetaData(project, "message");
+		CommitBatch batch = new CommitBatch();
+		batch.add(commitMetaData);
+		for (int i = 0; i < 3; i++) {
+			StableCommit instance = new StableCommit(project, commitMetaData, "A.java", "A", TestEntities.classMetric(), null, null, null, 1, 15);
+			instance.setProcessMetrics(new ProcessMetrics(0, 0, 0, 0, 0));
+			batch.add(instance);
+		}
+
+		try (BulkUnitOfWork work = new Database(sf).beginBulkWork()) {
+			work.persist(batch);
+			work.commit();
+			Assert.assertEquals(10, work.getEntityCount());
+		}
+
+		ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+		verify(connection, atLeastOnce()).prepareStatement(sql.capture());
+		List<String> inserts = sql.getAllValues().stream().filter(statement -> statement.startsWith("insert into ") && !statement.contains("id_generators"))
+				.map(statement -> statement.substring("insert into ".length(), statement.indexOf(' ', "insert into ".length())))
+				.collect(Collectors.toList());
+		Assert.assertEquals(List.of("CommitMetaData", "ClassMetric", "ProcessMetrics", "StableCommit"), inserts);
+		String stableCommitInsert = sql.getAllValues().stream().filter(statement -> statement.startsWith("insert into StableCommit")).findFirst().get();
+		Assert.assertEquals(3, stableCommitInsert.split("\\), \\(").length);
+		Assert.assertTrue(stableCommitInsert.contains("project_id"));
+		Assert.assertNotEquals(0, commitMetaData.getId());
+		// the commit meta data and every instance reference the project
+		verify(statement, times(4)).setLong(anyInt(), eq(42L));
+	}
+}
@@ -0,0 +1,52 @@
+package refactoringml;
+
+import com.github.mauricioaniche.ck.CKClassResult;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import refactoringml.util.CKCache;
+import java.util.Collections;
+import java.util.List;
+
+public class CKCacheTest {
+	private final ObjectId blobA = ObjectId.fromString("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+	private final ObjectId blobB = ObjectId.fromString("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+	private final ObjectId blobC = ObjectId.fromString("cccccccccccccccccccccccccccccccccccccccc");
+
+	@Test
+	public void hitsAndMisses() {
+		CKCache cache = new CKCache(10);
+		List<CKClassResult> results = Collections.singletonList(new CKClassResult("A.java", "A", "class", 0));
+
+		Assert.assertNull(cache.get(blobA));
+		cache.put(blobA, results);
+		Assert.assertSame(results, cache.get(blobA));
+		Assert.assertSame(results, cache.get(blobA));
+
+		Assert.assertEquals(2, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertTrue(cache.statistics().contains("2 hits, 1 misses"));
+	}
+
+	//The least recently used file version is evicted first
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		CKCache cache = new CKCache(2);
+		cache.put(blobA, Collections.emptyList());
+		cache.put(blobB, Collections.emptyList());
+		cache.get(blobA);
+		cache.put(blobC, Collections.emptyList());
+
+		Assert.assertEquals(2, cache.size());
+		Assert.assertNotNull(cache.get(blobA));
+		Assert.assertNull(cache.get(blobB));
+		Assert.assertNotNull(cache.get(blobC));
+	}
+
+	@Test
+	public void disabled() {
+		CKCache cache = new CKCache(0);
+		cache.put(blobA, Collections.emptyList());
+		Assert.assertNull(cache.get(blobA));
+	}
+}
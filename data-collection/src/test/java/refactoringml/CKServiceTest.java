@@ -0,0 +1,111 @@
+package refactoringml;
+
+import com.github.mauricioaniche.ck.CKClassResult;
+import com.github.mauricioaniche.ck.CKNotifier;
+import org.junit.Assert;
+import org.junit.Test;
+import refactoringml.util.CKService;
+import refactoringml.util.CKUtils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+public class CKServiceTest {
+	private final Map<String, String> sources = new LinkedHashMap<>() {{
+		put("a/A.java", "package a; class A { int m() { return 1; } }");
+		put("b/B.java", "package b; class B { void n() { } }");
+	}};
+
+	@Test
+	public void calculate() {
+		CKService ckService = new CKService(2, 60);
+		List<CKClassResult> results = Collections.synchronizedList(new ArrayList<>());
+		Assert.assertTrue(ckService.calculate(sources, "commit", "project", results::add));
+
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals(1, ckService.getCompletedJobs());
+		Assert.assertEquals(0, ckService.getTimedOutJobs());
+		Assert.assertEquals(0, ckService.getActiveJobs());
+	}
+
+	//Every project only counts its own runs, the service counts the runs of all projects
+	@Test
+	public void usagePerProject() {
+		CKService ckService = new CKService(2, 60);
+		CKService.Usage first = new CKService.Usage();
+		CKService.Usage second = new CKService.Usage();
+		Assert.assertTrue(ckService.calculate(sources, "commit", "first", first, ck -> {}));
+		Assert.assertTrue(ckService.calculate(sources, "commit", "first", first, ck -> {}));
+		Assert.assertTrue(ckService.calculate(sources, "commit", "second", second, ck -> {}));
+
+		Assert.assertEquals(2, first.getCompletedJobs());
+		Assert.assertEquals(1, second.getCompletedJobs());
+		Assert.assertEquals(3, ckService.getCompletedJobs());
+		Assert.assertTrue(second.statistics().startsWith("CK runs: 1 completed, 0 failed, 0 timed out"));
+	}
+
+	//A timed out run must not report any results after the caller stopped waiting
+	@Test
+	public void timeout() throws InterruptedException {
+		// warm up JDT, so that only the slow notifier can cause the timeout
+		CKUtils.calculate(sources, ck -> {});
+
+		CKService ckService = new CKService(1, 1);
+		List<CKClassResult> results = Collections.synchronizedList(new ArrayList<>());
+		boolean completed = ckService.calculate(sources, "commit", "project", ck -> {
+			results.add(ck);
+			try {
+				Thread.sleep(3000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		Assert.assertFalse(completed);
+		Assert.assertEquals(1, ckService.getTimedOutJobs());
+		int resultsAtTimeout = results.size();
+		Assert.assertTrue(resultsAtTimeout <= 1);
+
+		// the service can still be used after a timeout
+		// with a single thread, this run only starts after the timed out one stopped
+		List<CKClassResult> laterResults = Collections.synchronizedList(new ArrayList<>());
+		ckService.calculate(sources, "commit", "project", laterResults::add);
+		Assert.assertEquals(2, laterResults.size());
+		Assert.assertEquals(resultsAtTimeout, results.size());
+		Assert.assertEquals(0, ckService.getLingeringJobs());
+	}
+
+	//A run, that ignores the interrupt after its timeout, does not block the later runs
+	@Test
+	public void replaceHangingThread() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		CKService ckService = new CKService(1, 1) {
+			@Override
+			protected void runCK(Map<String, String> sources, CKNotifier notifier) {
+				// like JDT, the hanging file does not stop when it is interrupted
+				while (sources.containsKey("Hanging.java") && release.getCount() > 0) {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						// ignored
+					}
+				}
+				super.runCK(sources, notifier);
+			}
+		};
+		Assert.assertFalse(ckService.calculate(Map.of("Hanging.java", "class Hanging { }"), "commit", "project", ck -> {}));
+		Assert.assertEquals(1, ckService.getLingeringJobs());
+
+		List<CKClassResult> laterResults = Collections.synchronizedList(new ArrayList<>());
+		Assert.assertTrue(ckService.calculate(sources, "commit", "project", laterResults::add));
+		Assert.assertEquals(2, laterResults.size());
+
+		release.countDown();
+		for (int i = 0; i < 100 && ckService.getLingeringJobs() > 0; i++)
+			Thread.sleep(50);
+		Assert.assertEquals(0, ckService.getLingeringJobs());
+	}
+}
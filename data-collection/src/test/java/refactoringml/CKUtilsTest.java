@@ -1,8 +1,17 @@
 package refactoringml;
 
+import com.github.mauricioaniche.ck.CK;
+import com.github.mauricioaniche.ck.CKClassResult;
 import org.junit.Assert;
 import org.junit.Test;
 import refactoringml.util.CKUtils;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static refactoringml.util.FilePathUtils.enforceUnixPaths;
+import static refactoringml.util.FileUtils.*;
 
 public class CKUtilsTest {
 
@@ -98,4 +107,42 @@ public class CKUtilsTest {
 		simplified = CKUtils.simplifyFullMethodName(fullVersion);
 		Assert.assertEquals("drawNode/2[Canvas,BinarySearchTree]", simplified);
 	}
+
+	//The in memory analysis has to return the same metrics as CK on a directory
+	@Test
+	public void calculateInMemory() throws IOException {
+		String fileName = "a/b/Example.java";
+		String sourceCode = "package a.b;\n" +
+				"import java.util.List;\n" +
+				"public class Example {\n" +
+				"	private int counter;\n" +
+				"	public int count(List<String> names) {\n" +
+				"		for (String name : names) { if (name.isEmpty()) counter++; }\n" +
+				"		return counter;\n" +
+				"	}\n" +
+				"	class Inner { void reset() { counter = 0; } }\n" +
+				"}";
+
+		Map<String, String> fromDisk = new TreeMap<>();
+		String tempDir = createTmpDir();
+		try {
+			writeFile(tempDir + fileName, sourceCode);
+			new CK().calculate(tempDir, ck -> fromDisk.put(ck.getClassName(), enforceUnixPaths(ck.getFile()).replace(tempDir, "") + " " + describe(ck)));
+		} finally {
+			cleanTempDir(tempDir);
+		}
+
+		Map<String, String> inMemory = new TreeMap<>();
+		CKUtils.calculate(Collections.singletonMap(fileName, sourceCode), ck -> inMemory.put(ck.getClassName(), ck.getFile() + " " + describe(ck)));
+
+		Assert.assertEquals(2, inMemory.size());
+		Assert.assertEquals(fromDisk, inMemory);
+	}
+
+	private String describe(CKClassResult ck) {
+		return CKUtils.extractClassMetrics(ck).toString() + ck.getMethods().stream()
+				.map(method -> CKUtils.extractMethodMetrics(method).toString())
+				.sorted()
+				.reduce("", String::concat);
+	}
 }
@@ -0,0 +1,103 @@
+package refactoringml;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import refactoringml.util.CommitList;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static refactoringml.util.FileUtils.createTmpDir;
+import static refactoringml.util.FileUtils.writeFile;
+
+//Test the CommitList class on a small repository with a merged branch
+public class CommitListTest {
+	private File repoDir;
+	private Git git;
+	private RevCommit first;
+	private RevCommit branchCommit;
+	private RevCommit mainCommit;
+	private RevCommit merge;
+
+	@Before
+	public void createRepository() throws Exception {
+		repoDir = new File(createTmpDir());
+		git = Git.init().setDirectory(repoDir).call();
+		first = commit("a/A.java", "class A { }");
+		git.checkout().setCreateBranch(true).setName("other").call();
+		branchCommit = commit("b/B.java", "class B { }");
+		git.checkout().setName("master").call();
+		mainCommit = commit("c/C.java", "class C { }");
+		MergeResult result = git.merge().include(branchCommit).setMessage("merge").call();
+		merge = git.getRepository().parseCommit(result.getNewHead());
+	}
+
+	@After
+	public void deleteRepository() throws IOException {
+		git.close();
+		FileUtils.deleteDirectory(repoDir);
+	}
+
+	//All commits are listed in the same order as a reverse RevWalk would return them
+	@Test
+	public void allCommits() throws Exception {
+		CommitList commits = CommitList.load(git.getRepository(), "master", false);
+
+		List<String> expected = new ArrayList<>();
+		try (RevWalk walk = new RevWalk(git.getRepository())) {
+			walk.markStart(walk.parseCommit(merge));
+			walk.sort(RevSort.REVERSE);
+			walk.forEach(commit -> expected.add(commit.getName()));
+		}
+		Assert.assertEquals(4, commits.size());
+		Assert.assertEquals(expected, names(commits));
+		Assert.assertTrue(commits.isMerge(3));
+		Assert.assertEquals(expected.subList(0, 3), commits.nonMergeCommits());
+	}
+
+	//Only the first parents of the head are listed
+	@Test
+	public void firstParent() throws Exception {
+		CommitList commits = CommitList.load(git.getRepository(), "master", true);
+
+		Assert.assertEquals(Arrays.asList(first.getName(), mainCommit.getName(), merge.getName()), names(commits));
+		Assert.assertEquals(2, commits.nonMergeCommits().size());
+	}
+
+	//The cursor parses the commits with their messages
+	@Test
+	public void cursor() throws Exception {
+		CommitList commits = CommitList.load(git.getRepository(), "master", true);
+
+		try (CommitList.Cursor cursor = commits.cursor(git.getRepository(), 1)) {
+			RevCommit commit = cursor.next();
+			Assert.assertEquals(mainCommit, commit);
+			Assert.assertEquals("change c/C.java", commit.getFullMessage());
+			Assert.assertEquals(merge, cursor.next());
+			Assert.assertNull(cursor.next());
+		}
+	}
+
+	private List<String> names(CommitList commits) {
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < commits.size(); i++)
+			names.add(commits.get(i).getName());
+		return names;
+	}
+
+	private RevCommit commit(String fileName, String content) throws Exception {
+		writeFile(new File(repoDir, fileName).getAbsolutePath(), content);
+		git.add().addFilepattern(fileName).call();
+		return git.commit().setMessage("change " + fileName).call();
+	}
+}
@@ -0,0 +1,100 @@
+package refactoringml;
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+//Test the CommitPipeline class
+public class CommitPipelineTest {
+	//Commits have to leave the last stage in the same order they entered the first one
+	@Test
+	public void keepsOrder() throws Exception {
+		List<MinedCommit> commits = createCommits(50);
+		List<MinedCommit> firstStage = Collections.synchronizedList(new ArrayList<>());
+		List<MinedCommit> lastStage = Collections.synchronizedList(new ArrayList<>());
+
+		new CommitPipeline("test", 2)
+				.addStage("first", firstStage::add)
+				.addStage("slow", minedCommit -> Thread.sleep(1))
+				.addStage("last", lastStage::add)
+				.run(source(commits));
+
+		Assert.assertEquals(commits, firstStage);
+		Assert.assertEquals(commits, lastStage);
+	}
+
+	//A parallel stage processes commits at the same time, but forwards them in the original order
+	@Test
+	public void parallelStageKeepsOrder() throws Exception {
+		List<MinedCommit> commits = createCommits(40);
+		Set<String> workers = ConcurrentHashMap.newKeySet();
+		List<MinedCommit> lastStage = new ArrayList<>();
+
+		CommitPipeline pipeline = new CommitPipeline("test", 4)
+				.addParallelStage("parallel", 4, minedCommit -> {
+					workers.add(Thread.currentThread().getName());
+					// later commits finish first
+					Thread.sleep(40 - commits.indexOf(minedCommit));
+					if (commits.indexOf(minedCommit) == 7)
+						throw new IllegalStateException("failed");
+				})
+				.addStage("last", lastStage::add, false);
+		pipeline.run(source(commits));
+
+		Assert.assertEquals(commits, lastStage);
+		Assert.assertTrue(commits.get(7).hasFailed());
+		Assert.assertEquals(1, commits.stream().filter(MinedCommit::hasFailed).count());
+		Assert.assertTrue(workers.size() > 1);
+		Assert.assertTrue(pipeline.statistics().contains("parallel: processed 40 commits (1 failed)"));
+	}
+
+	//A failed commit is skipped by the following stages, unless they ask to see failed commits
+	@Test
+	public void failedCommits() throws Exception {
+		List<MinedCommit> commits = createCommits(5);
+		MinedCommit failing = commits.get(2);
+		List<MinedCommit> skipping = new ArrayList<>();
+		List<MinedCommit> reporting = new ArrayList<>();
+
+		CommitPipeline pipeline = new CommitPipeline("test", 2)
+				.addStage("fail", minedCommit -> {
+					if (minedCommit == failing)
+						throw new IllegalStateException("failed");
+				})
+				.addStage("skipping", skipping::add)
+				.addStage("reporting", reporting::add, false);
+		pipeline.run(source(commits));
+
+		Assert.assertTrue(failing.hasFailed());
+		Assert.assertEquals("fail", failing.getFailedStage());
+		Assert.assertEquals(4, skipping.size());
+		Assert.assertFalse(skipping.contains(failing));
+		Assert.assertEquals(commits, reporting);
+		Assert.assertTrue(pipeline.statistics().contains("fail: processed 5 commits (1 failed)"));
+	}
+
+	//An exception of the source aborts the pipeline and is passed to the caller
+	@Test(expected = IllegalStateException.class)
+	public void failingSource() throws Exception {
+		new CommitPipeline("test", 2)
+				.addStage("first", minedCommit -> {})
+				.run(() -> { throw new IllegalStateException("source failed"); });
+	}
+
+	private List<MinedCommit> createCommits(int count) {
+		return IntStream.range(0, count).mapToObj(i -> new MinedCommit(null)).collect(Collectors.toList());
+	}
+
+	private Callable<MinedCommit> source(List<MinedCommit> commits) {
+		Iterator<MinedCommit> iterator = commits.iterator();
+		return () -> iterator.hasNext() ? iterator.next() : null;
+	}
+}
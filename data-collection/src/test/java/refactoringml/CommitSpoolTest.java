@@ -0,0 +1,269 @@
+package refactoringml;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.exception.JDBCConnectionException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import refactoringml.db.*;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static refactoringml.util.FileUtils.createTmpDir;
+
+//Test the CommitSpool class, its CommitJournal and the EntityCodec, with the real mapping of the entities and a mocked database
+public class CommitSpoolTest {
+	private SessionFactory sf;
+	private File journalDir;
+
+	@Before
+	public void createSessionFactory() {
+		Configuration configuration = new Configuration();
+		configuration.setProperty(Environment.DIALECT, "org.hibernate.dialect.MySQL5InnoDBDialect");
+		configuration.setProperty("hibernate.temp.use_jdbc_metadata_defaults", "false");
+		configuration.getProperties().put(Environment.CONNECTION_PROVIDER, mock(ConnectionProvider.class));
+		for (Class<?> entity : List.of(RefactoringCommit.class, StableCommit.class, Project.class, CommitMetaData.class, ClassMetric.class,
+				MethodMetric.class, VariableMetric.class, FieldMetric.class, ProcessMetrics.class, JournalCheckpoint.class))
+			configuration.addAnnotatedClass(entity);
+		sf = configuration.buildSessionFactory(new StandardServiceRegistryBuilder().applySettings(configuration.getProperties()).build());
+		journalDir = new File(createTmpDir(), "journals");
+	}
+
+	@After
+	public void closeSessionFactory() throws Exception {
+		sf.close();
+		FileUtils.deleteDirectory(journalDir.getParentFile());
+	}
+
+	//A decoded record has the same entities as the batch, the persisted project is only referenced by its id
+	@Test
+	public void encodeAndDecode() throws Exception {
+		EntityCodec codec = new Database(sf).createEntityCodec();
+		Project project = TestEntities.project(42);
+		CommitMetaData commitMetaData = TestEntities.commitMetaData(project, "message");
+		ClassMetric classMetric = TestEntities.classMetric();
+		FieldUtils.writeField(classMetric, "classLcom", 7, true);
+		CommitBatch batch = new CommitBatch();
+		batch.add(commitMetaData);
+		batch.add(new StableCommit(project, commitMetaData, "A.java", "A", classMetric, null, null, null, 1, 15));
+
+		EntityCodec.Encoded encoded = codec.encode(batch, entity -> null);
+		Assert.assertEquals(List.of(commitMetaData, classMetric, batch.getEntities().get(1)), encoded.getEntities());
+
+		EntityCodec.Decoded decoded = codec.decode(encoded.getRecord(), (position, entity) -> null);
+		List<Object> entities = decoded.getBatch().getEntities();
+		Assert.assertEquals(2, entities.size());
+		StableCommit stableCommit = (StableCommit) entities.get(1);
+		Assert.assertSame(entities.get(0), stableCommit.getCommitMetaData());
+		Assert.assertEquals(commitMetaData.getCommitId(), stableCommit.getCommitMetaData().getCommitId());
+		Assert.assertEquals(((Calendar) FieldUtils.readField(commitMetaData, "commitDate", true)).getTimeInMillis(),
+				((Calendar) FieldUtils.readField(stableCommit.getCommitMetaData(), "commitDate", true)).getTimeInMillis());
+		Assert.assertEquals(42, ((Project) FieldUtils.readField(stableCommit, "project", true)).getId());
+		Assert.assertEquals(0, stableCommit.getCommitMetaData().getId());
+		Assert.assertEquals(7, FieldUtils.readField(stableCommit.getClassMetrics(), "classLcom", true));
+		Assert.assertEquals(15, stableCommit.getCommitThreshold());
+	}
+
+	//An entity of an earlier record references the row of that record, the resolver gets the decoded entity to find it
+	@Test
+	public void referenceEarlierRecords() throws Exception {
+		EntityCodec codec = new Database(sf).createEntityCodec();
+		Project project = TestEntities.project(42);
+		CommitMetaData commitMetaData = TestEntities.commitMetaData(project, "message");
+		CommitBatch batch = new CommitBatch();
+		batch.add(new StableCommit(project, commitMetaData, "A.java", "A", TestEntities.classMetric(), null, null, null, 1, 15));
+
+		JsonNode record = codec.encode(batch, entity -> entity == commitMetaData ? "1:0" : null).getRecord();
+		List<String> resolved = new ArrayList<>();
+		StableCommit referencing = (StableCommit) codec.decode(record, (position, entity) -> {
+			resolved.add(position + " " + ((CommitMetaData) entity).getCommitId());
+			return 17L;
+		}).getBatch().getEntities().get(0);
+		Assert.assertEquals(17, referencing.getCommitMetaData().getId());
+		Assert.assertEquals(List.of("1:0 " + commitMetaData.getCommitId()), resolved);
+
+		StableCommit inserting = (StableCommit) codec.decode(record, (position, entity) -> null).getBatch().getEntities().get(0);
+		Assert.assertEquals(0, inserting.getCommitMetaData().getId());
+		Assert.assertEquals(commitMetaData.getCommitId(), inserting.getCommitMetaData().getCommitId());
+	}
+
+	//The journal only returns complete records, in the order they were appended
+	@Test
+	public void readCompleteRecords() throws Exception {
+		File file = new File(journalDir, "test.journal");
+		CommitJournal journal = new CommitJournal(file);
+		Assert.assertNull(journal.next());
+		journal.append(JsonNodeFactory.instance.objectNode().put("sequence", 1));
+		journal.append(JsonNodeFactory.instance.objectNode().put("sequence", 2));
+		Files.write(file.toPath(), "{\"sequence\": 3".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		Assert.assertEquals(1, journal.next().get("sequence").asLong());
+		Assert.assertEquals(2, journal.next().get("sequence").asLong());
+		Assert.assertNull(journal.next());
+		Assert.assertTrue(journal.hasIncompleteRecord());
+		journal.delete();
+		Assert.assertFalse(file.exists());
+	}
+
+	//A record is retried while the database is not available, the ids are copied back and the actions run once it is written
+	@Test
+	public void retryUnavailableDatabase() throws Exception {
+		Database db = mock(Database.class);
+		UnitOfWork work = mock(UnitOfWork.class);
+		AtomicLong nextId = new AtomicLong(100);
+		when(db.createEntityCodec()).thenReturn(new Database(sf).createEntityCodec());
+		when(db.beginWork())
+				.thenThrow(new JDBCConnectionException("Unable to acquire JDBC Connection", new SQLException("refused", "08001")))
+				.thenReturn(work);
+		doAnswer(invocation -> {
+			for (Object entity : ((CommitBatch) invocation.getArgument(0)).getEntities())
+				FieldUtils.writeField(entity, "id", nextId.getAndIncrement(), true);
+			return null;
+		}).when(work).persist(any(CommitBatch.class));
+
+		Project project = TestEntities.project(42);
+		CommitMetaData first = TestEntities.commitMetaData(project, "first");
+		CommitMetaData second = TestEntities.commitMetaData(project, "second");
+		List<Long> storedIds = Collections.synchronizedList(new ArrayList<>());
+		CommitSpool spool = CommitSpool.forProject(journalDir, "project", 42, db, false, 100);
+		spool.append("a", batch(first, () -> storedIds.add(first.getId())));
+		spool.append("b", batch(second, () -> storedIds.add(second.getId())));
+		spool.close();
+
+		Assert.assertEquals(List.of(100L, 101L), storedIds);
+		Assert.assertEquals(2, spool.getReplayedCommits());
+		verify(work).checkpoint(42, 1);
+		verify(work).checkpoint(42, 2);
+		verify(work, times(2)).commit();
+		Assert.assertTrue(spool.statistics().contains("1 retries"));
+		Assert.assertEquals(0, journalDir.listFiles().length);
+	}
+
+	//A journal left behind by a crashed worker is replayed from its checkpoint on
+	@Test
+	public void replayLeftovers() throws Exception {
+		File file = new File(journalDir, "project-42.journal");
+		EntityCodec codec = new Database(sf).createEntityCodec();
+		Project project = TestEntities.project(42);
+		CommitJournal journal = new CommitJournal(file);
+		for (int sequence = 1; sequence <= 3; sequence++) {
+			journal.append(JsonNodeFactory.instance.objectNode().put("sequence", sequence).put("commit", "c" + sequence)
+					.setAll(codec.encode(batch(TestEntities.commitMetaData(project, "c" + sequence), () -> {}), entity -> null).getRecord()));
+		}
+		journal.close();
+
+		Database db = mock(Database.class);
+		UnitOfWork work = mock(UnitOfWork.class);
+		AtomicInteger persisted = new AtomicInteger(0);
+		when(db.createEntityCodec()).thenReturn(codec);
+		when(db.findJournalCheckpoint(42)).thenReturn(2L);
+		when(db.beginWork()).thenReturn(work);
+		doAnswer(invocation -> persisted.incrementAndGet()).when(work).persist(any(CommitBatch.class));
+
+		CommitSpool.replayLeftovers(journalDir, db, false, 100);
+
+		Assert.assertEquals(1, persisted.get());
+		verify(work).checkpoint(42, 3);
+		verify(work, never()).checkpoint(eq(42L), longThat(sequence -> sequence < 3));
+		Assert.assertFalse(file.exists());
+	}
+
+	//Once the id of an earlier record is lost, e.g. after a crash, the commit meta data is looked up by its commit hash, any other entity fails its record
+	@Test
+	public void lookUpLostIds() throws Exception {
+		File file = new File(journalDir, "project-42.journal");
+		EntityCodec codec = new Database(sf).createEntityCodec();
+		Project project = TestEntities.project(42);
+		CommitMetaData base = TestEntities.commitMetaData(project, "base");
+		ClassMetric classMetric = TestEntities.classMetric();
+		CommitJournal journal = new CommitJournal(file);
+		journal.append(JsonNodeFactory.instance.objectNode().put("sequence", 1).put("commit", "c1")
+				.setAll(codec.encode(batch(base, () -> {}), entity -> null).getRecord()));
+		CommitBatch stable = new CommitBatch();
+		stable.add(new StableCommit(project, base, "A.java", "A", classMetric, null, null, null, 1, 15));
+		journal.append(JsonNodeFactory.instance.objectNode().put("sequence", 2).put("commit", "c2")
+				.setAll(codec.encode(stable, entity -> entity == base ? "1:0" : null).getRecord()));
+		CommitBatch unknown = new CommitBatch();
+		unknown.add(new StableCommit(project, TestEntities.commitMetaData(project, "other"), "A.java", "A", classMetric, null, null, null, 1, 15));
+		journal.append(JsonNodeFactory.instance.objectNode().put("sequence", 3).put("commit", "c3")
+				.setAll(codec.encode(unknown, entity -> entity == classMetric ? "1:5" : null).getRecord()));
+		journal.close();
+
+		Database db = mock(Database.class);
+		UnitOfWork work = mock(UnitOfWork.class);
+		List<CommitBatch> persisted = new ArrayList<>();
+		when(db.createEntityCodec()).thenReturn(codec);
+		when(db.findJournalCheckpoint(42)).thenReturn(1L);
+		when(db.findCommitMetaDataId(42, base.getCommitId())).thenReturn(17L);
+		when(db.beginWork()).thenReturn(work);
+		doAnswer(invocation -> persisted.add(invocation.getArgument(0))).when(work).persist(any(CommitBatch.class));
+
+		CommitSpool spool = new CommitSpool("project", file, 42, db, false, 100);
+		spool.close();
+
+		Assert.assertEquals(1, persisted.size());
+		Assert.assertEquals(17, ((StableCommit) persisted.get(0).getEntities().get(0)).getCommitMetaData().getId());
+		Assert.assertEquals(1, spool.getFailedCommits());
+		verify(work).checkpoint(42, 2);
+		verify(work, never()).checkpoint(42, 3);
+		Assert.assertTrue(spool.statistics().endsWith("1 ids of earlier records looked up (0 not found and inserted again)"));
+	}
+
+	//Writes outside of the journal, e.g. of the project, wait for the database as well, any other failure is thrown right away
+	@Test
+	public void retryWhileUnavailable() throws Exception {
+		AtomicInteger attempts = new AtomicInteger(0);
+		String result = CommitSpool.retryWhileUnavailable("storing the project", () -> {
+			if (attempts.incrementAndGet() == 1)
+				throw new JDBCConnectionException("Unable to acquire JDBC Connection", new SQLException("refused", "08001"));
+			return "stored";
+		});
+		Assert.assertEquals("stored", result);
+		Assert.assertEquals(2, attempts.get());
+
+		try {
+			CommitSpool.retryWhileUnavailable("storing the project", () -> { throw new IllegalStateException("failed"); });
+			Assert.fail("Only failures of the connection are retried.");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("failed", e.getMessage());
+		}
+	}
+
+	//Only failures of the connection are retried
+	@Test
+	public void connectionFailures() {
+		Assert.assertTrue(CommitSpool.isConnectionFailure(new JDBCConnectionException("closed", new SQLException("closed"))));
+		Assert.assertTrue(CommitSpool.isConnectionFailure(new RuntimeException(new SQLException("link failure", "08S01"))));
+		Assert.assertFalse(CommitSpool.isConnectionFailure(new RuntimeException(new SQLException("duplicate entry", "23000"))));
+		Assert.assertFalse(CommitSpool.isConnectionFailure(new IllegalStateException("failed")));
+	}
+
+	private static CommitBatch batch(CommitMetaData commitMetaData, Runnable afterPersist) {
+		CommitBatch batch = new CommitBatch();
+		batch.add(commitMetaData);
+		batch.afterPersist(afterPersist);
+		return batch;
+	}
+}
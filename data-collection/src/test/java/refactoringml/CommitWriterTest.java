@@ -0,0 +1,85 @@
+package refactoringml;
+
+import org.junit.Assert;
+import org.junit.Test;
+import refactoringml.db.CommitBatch;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+//Test the CommitWriter class
+public class CommitWriterTest {
+	//Batches are written in the order they were submitted, closing the writer waits for the last one
+	@Test
+	public void writesInOrder() throws Exception {
+		List<String> written = Collections.synchronizedList(new ArrayList<>());
+		List<String> submitted = new ArrayList<>();
+
+		CommitWriter writer = new CommitWriter("test", 100, (commitHash, batch) -> {
+			Thread.sleep(1);
+			written.add(commitHash);
+		});
+		for (int i = 0; i < 30; i++) {
+			submitted.add("commit" + i);
+			writer.submit("commit" + i, batch(3));
+		}
+		writer.close();
+
+		Assert.assertEquals(submitted, written);
+		Assert.assertEquals(30, writer.getWrittenCommits());
+		Assert.assertTrue(writer.statistics().contains("Writer test: 30 commits written (0 failed)"));
+	}
+
+	//Submitting blocks while the buffered entities exceed the limit, a batch larger than the limit still passes once the buffer is empty
+	@Test
+	public void appliesBackpressure() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CommitWriter writer = new CommitWriter("test", 10, (commitHash, batch) -> release.await());
+		writer.submit("first", batch(6));
+
+		CountDownLatch submitted = new CountDownLatch(1);
+		Thread producer = new Thread(() -> {
+			try {
+				writer.submit("second", batch(20));
+				submitted.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+
+		Assert.assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+		release.countDown();
+		Assert.assertTrue(submitted.await(5, TimeUnit.SECONDS));
+		writer.close();
+		producer.join();
+		Assert.assertEquals(2, writer.getWrittenCommits());
+	}
+
+	//A failed batch is counted, the following batches are still written
+	@Test
+	public void continuesAfterFailure() throws Exception {
+		List<String> written = Collections.synchronizedList(new ArrayList<>());
+		CommitWriter writer = new CommitWriter("test", 100, (commitHash, batch) -> {
+			if (commitHash.equals("broken"))
+				throw new IllegalStateException("failed");
+			written.add(commitHash);
+		});
+		writer.submit("first", batch(1));
+		writer.submit("broken", batch(1));
+		writer.submit("last", batch(1));
+		writer.close();
+
+		Assert.assertEquals(List.of("first", "last"), written);
+		Assert.assertEquals(1, writer.getFailedCommits());
+	}
+
+	private static CommitBatch batch(int entities) {
+		CommitBatch batch = new CommitBatch();
+		for (int i = 0; i < entities; i++)
+			batch.add(new Object());
+		return batch;
+	}
+}
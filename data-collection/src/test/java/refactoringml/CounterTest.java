@@ -0,0 +1,61 @@
+package refactoringml;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import refactoringml.util.Counter;
+import refactoringml.util.Counter.CounterResult;
+import java.io.File;
+import java.io.IOException;
+
+import static refactoringml.util.FileUtils.createTmpDir;
+import static refactoringml.util.FileUtils.writeFile;
+
+//Test the Counter class on a checkout and on the tree of the same commit
+public class CounterTest {
+	private File repoDir;
+	private Git git;
+
+	@Before
+	public void createRepository() throws Exception {
+		repoDir = new File(createTmpDir(), "repo");
+		git = Git.init().setDirectory(repoDir).call();
+		writeFile(new File(repoDir, "src/main/A.java").getAbsolutePath(), "class A {\n\tint a;\n}\n");
+		writeFile(new File(repoDir, "src/main/B.java").getAbsolutePath(), "class B {\n\t// comment\n\tint b;\n}\n");
+		writeFile(new File(repoDir, "src/test/ATest.java").getAbsolutePath(), "class ATest {\n}\n");
+		writeFile(new File(repoDir, "README.md").getAbsolutePath(), "readme");
+		git.add().addFilepattern(".").call();
+		git.commit().setMessage("initial").call();
+	}
+
+	@After
+	public void deleteRepository() throws IOException {
+		git.close();
+		FileUtils.deleteDirectory(repoDir.getParentFile());
+	}
+
+	//Counting the files in the tree of the head gives the same result as counting them in the checkout
+	@Test
+	public void countTree() throws Exception {
+		CounterResult checkout = Counter.countProductionAndTestFiles(repoDir.getAbsolutePath());
+		CounterResult tree = Counter.countProductionAndTestFiles(git.getRepository(), Constants.HEAD);
+
+		Assert.assertEquals(2, tree.getQtyOfProductionFiles());
+		Assert.assertEquals(1, tree.getQtyOfTestFiles());
+		Assert.assertEquals(checkout.getQtyOfProductionFiles(), tree.getQtyOfProductionFiles());
+		Assert.assertEquals(checkout.getQtyOfTestFiles(), tree.getQtyOfTestFiles());
+		Assert.assertEquals(checkout.getLocProductionFiles(), tree.getLocProductionFiles());
+		Assert.assertEquals(checkout.getLocTestFiles(), tree.getLocTestFiles());
+	}
+
+	//The size of the tree is the size of all files in the checkout, without the git directory
+	@Test
+	public void sizeOfTree() throws Exception {
+		long checkoutSize = FileUtils.sizeOfDirectory(repoDir) - FileUtils.sizeOfDirectory(new File(repoDir, ".git"));
+		Assert.assertEquals(checkoutSize, Counter.sizeOfTree(git.getRepository(), Constants.HEAD));
+	}
+}
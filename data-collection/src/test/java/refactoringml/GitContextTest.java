@@ -0,0 +1,190 @@
+package refactoringml;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.junit.Test;
+import refactoringml.util.CommitDiff;
+import refactoringml.util.GitContext;
+import refactoringml.util.JavaPathFilter;
+import refactoringml.util.RefactoringUtils;
+import refactoringml.util.RenamePolicy;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static refactoringml.util.FileUtils.createTmpDir;
+import static refactoringml.util.FileUtils.writeFile;
+
+//Test the GitContext class on a small repository
+public class GitContextTest {
+	private File repoDir;
+	private Git git;
+
+	@Before
+	public void createRepository() throws Exception {
+		repoDir = new File(createTmpDir());
+		git = Git.init().setDirectory(repoDir).call();
+	}
+
+	@After
+	public void deleteRepository() throws IOException {
+		git.close();
+		FileUtils.deleteDirectory(repoDir);
+	}
+
+	@Test
+	public void diffAndRead() throws Exception {
+		RevCommit first = commit("a/A.java", "class A { }");
+		RevCommit second = commit("a/A.java", "class A {\n int x;\n}");
+
+		try (GitContext gitContext = new GitContext(git.getRepository())) {
+			CommitDiff diff = gitContext.calculateDiff(second);
+			List<DiffEntry> entries = diff.getEntries();
+			Assert.assertEquals(1, entries.size());
+			Assert.assertEquals(DiffEntry.ChangeType.MODIFY, entries.get(0).getChangeType());
+			Assert.assertEquals(3, diff.getLinesAdded(entries.get(0)));
+			Assert.assertEquals(1, diff.getLinesDeleted(entries.get(0)));
+
+			// the first commit is compared with an empty tree
+			Assert.assertEquals(DiffEntry.ChangeType.ADD, gitContext.calculateDiff(first).getEntries().get(0).getChangeType());
+
+			Assert.assertEquals("class A { }", gitContext.readFile(first.getName(), "a/A.java"));
+			Assert.assertEquals("class A {\n int x;\n}", gitContext.readFile(second, "a/A.java"));
+			ObjectId blobId = gitContext.findBlobId(first, "a/A.java");
+			Assert.assertEquals(blobId, gitContext.findBlobId(first.getName(), "a/A.java"));
+		}
+	}
+
+	//The diff finds the same entries, renames and changed lines as a DiffFormatter for java files, but loads every blob only once
+	@Test
+	public void sameDiffAsDiffFormatter() throws Exception {
+		commit("a/A.java", "class A {\n int x;\n int y;\n int z;\n}");
+		commit("a/B.java", "class B { }");
+		commit("README.md", "readme");
+		git.rm().addFilepattern("a/A.java").call();
+		writeFile(new File(repoDir, "b/A.java").getAbsolutePath(), "class A {\n int x;\n int y;\n int w;\n}");
+		writeFile(new File(repoDir, "a/B.java").getAbsolutePath(), "class B {\n int b;\n}");
+		writeFile(new File(repoDir, "README.md").getAbsolutePath(), "changed readme");
+		git.add().addFilepattern(".").call();
+		RevCommit commit = git.commit().setMessage("rename and change").call();
+
+		List<DiffEntry> expected;
+		try (DiffFormatter formatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+			formatter.setRepository(git.getRepository());
+			formatter.setDetectRenames(true);
+			formatter.setPathFilter(PathSuffixFilter.create(".java"));
+			expected = formatter.scan(commit.getParent(0), commit);
+
+			try (GitContext gitContext = new GitContext(git.getRepository())) {
+				CommitDiff diff = gitContext.calculateDiff(commit);
+				Assert.assertEquals(expected.toString(), diff.getEntries().toString());
+				Assert.assertEquals(Collections.singleton(new ImmutablePair<>("a/A.java", "b/A.java")), diff.getRenames());
+				for (DiffEntry entry : diff.getEntries()) {
+					List<Edit> editList = formatter.toFileHeader(entry).toEditList();
+					Assert.assertEquals(RefactoringUtils.calculateLinesAdded(editList), diff.getLinesAdded(entry));
+					Assert.assertEquals(RefactoringUtils.calculateLinesDeleted(editList), diff.getLinesDeleted(entry));
+				}
+				// both sides of the renamed and the changed java file, the readme is not diffed
+				Assert.assertEquals(4, gitContext.getDiffBlobsLoaded());
+			}
+		}
+	}
+
+	//Above the max candidate size only renames with the exact same content are detected
+	@Test
+	public void renameEscapeHatch() throws Exception {
+		commit("a/A.java", "class A {\n int x;\n int y;\n int z;\n}");
+		commit("a/B.java", "class B { }");
+		git.rm().addFilepattern("a/A.java").call();
+		git.rm().addFilepattern("a/B.java").call();
+		writeFile(new File(repoDir, "b/A.java").getAbsolutePath(), "class A {\n int x;\n int y;\n int w;\n}");
+		writeFile(new File(repoDir, "b/B.java").getAbsolutePath(), "class B { }");
+		git.add().addFilepattern(".").call();
+		RevCommit commit = git.commit().setMessage("move files").call();
+
+		try (GitContext gitContext = new GitContext(git.getRepository(), 0, new RenamePolicy(RenamePolicy.DEFAULT_RENAME_LIMIT, 1))) {
+			CommitDiff diff = gitContext.calculateDiff(commit);
+			Assert.assertEquals(Collections.singleton(new ImmutablePair<>("a/B.java", "b/B.java")), diff.getRenames());
+			Assert.assertEquals(3, diff.getEntries().size());
+			Assert.assertEquals(1, gitContext.getRenameEscapeHatches());
+		}
+
+		try (GitContext gitContext = new GitContext(git.getRepository(), 0, new RenamePolicy(RenamePolicy.DEFAULT_RENAME_LIMIT, 1024))) {
+			Assert.assertEquals(2, gitContext.calculateDiff(commit).getRenames().size());
+			Assert.assertEquals(0, gitContext.getRenameEscapeHatches());
+		}
+	}
+
+	//Files not matching the path filter are never diffed, but can still be read
+	@Test
+	public void pathFilter() throws Exception {
+		RevCommit first = commit("src/A.java", "class A { }");
+		RevCommit second = commit("src/generated/G.java", "class G { }");
+		RevCommit third = commit("README.md", "readme");
+
+		JavaPathFilter pathFilter = JavaPathFilter.fromGlobs("src/**", "**/generated");
+		try (GitContext gitContext = new GitContext(git.getRepository(), 0, RenamePolicy.unbounded(), pathFilter)) {
+			Assert.assertTrue(gitContext.calculateDiff(second).getEntries().isEmpty());
+			Assert.assertTrue(gitContext.calculateDiff(third).getEntries().isEmpty());
+			Assert.assertEquals("src/A.java", gitContext.calculateDiff(first).getEntries().get(0).getNewPath());
+			// only the added A.java was loaded to count its lines
+			Assert.assertEquals(1, gitContext.getDiffBlobsLoaded());
+
+			// RefactoringMiner analyzes all java files, thus also the excluded ones
+			Assert.assertTrue(gitContext.touchesJavaFiles(first));
+			Assert.assertTrue(gitContext.touchesJavaFiles(second));
+			Assert.assertFalse(gitContext.touchesJavaFiles(third));
+
+			// the excluded file is not in the blob index, thus it is read from the tree
+			for (RevCommit commit : new RevCommit[]{first, second, third})
+				gitContext.indexCommit(commit, gitContext.calculateDiff(commit).getEntries());
+			Assert.assertEquals("class G { }", gitContext.readFile(third, "src/generated/G.java"));
+		}
+	}
+
+	//Blobs are cached until they exceed the byte budget, then the least recently used ones are evicted
+	@Test
+	public void cachesBlobs() throws Exception {
+		commit("a/A.java", "class A { }");
+		RevCommit commit = commit("b/B.java", "class B { }");
+
+		try (GitContext gitContext = new GitContext(git.getRepository(), 15)) {
+			gitContext.readFile(commit, "a/A.java");
+			gitContext.readFile(commit.getName(), "a/A.java");
+			Assert.assertEquals(1, gitContext.getBlobMisses());
+			Assert.assertEquals(1, gitContext.getBlobHits());
+
+			// both files do not fit into the cache at once
+			gitContext.readFile(commit, "b/B.java");
+			Assert.assertEquals("class A { }", gitContext.readFile(commit, "a/A.java"));
+			Assert.assertEquals(3, gitContext.getBlobMisses());
+			Assert.assertEquals(1, gitContext.getBlobHits());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingFile() throws Exception {
+		RevCommit commit = commit("a/A.java", "class A { }");
+		try (GitContext gitContext = new GitContext(git.getRepository())) {
+			gitContext.findBlobId(commit.getName(), "a/B.java");
+		}
+	}
+
+	private RevCommit commit(String fileName, String content) throws Exception {
+		writeFile(new File(repoDir, fileName).getAbsolutePath(), content);
+		git.add().addFilepattern(fileName).call();
+		return git.commit().setMessage("change " + fileName).call();
+	}
+}
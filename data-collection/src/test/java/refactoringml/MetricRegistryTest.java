@@ -0,0 +1,87 @@
+package refactoringml;
+
+import com.github.mauricioaniche.ck.CKClassResult;
+import com.github.mauricioaniche.ck.CKMethodResult;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+import refactoringml.db.ClassMetric;
+import refactoringml.db.CommitBatch;
+import refactoringml.db.MethodMetric;
+import refactoringml.util.MetricRegistry;
+import java.util.Collections;
+
+//Test the MetricRegistry class, the persistence of a batch is simulated by assigning the ids
+public class MetricRegistryTest {
+	private final ObjectId blobA = ObjectId.fromString("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+	private final ObjectId blobB = ObjectId.fromString("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+	private final CKClassResult classA = new CKClassResult("A.java", "A", "class", 0);
+	private final CKMethodResult methodA = method("m/0");
+
+	//The metrics of a version are shared within a batch and reused by later batches once they were persisted
+	@Test
+	public void reuseAfterPersist() throws Exception {
+		MetricRegistry registry = new MetricRegistry(10);
+		CommitBatch first = new CommitBatch();
+		ClassMetric classMetric = registry.classMetric(blobA, classA, first);
+		MethodMetric methodMetric = registry.methodMetric(blobA, classA, methodA, first);
+		Assert.assertSame(classMetric, registry.classMetric(blobA, classA, first));
+		Assert.assertSame(methodMetric, registry.methodMetric(blobA, classA, methodA, first));
+
+		// not registered before the batch was persisted
+		CommitBatch second = new CommitBatch();
+		Assert.assertNotSame(classMetric, registry.classMetric(blobA, classA, second));
+
+		FieldUtils.writeField(methodMetric, "id", 2L, true);
+		persist(first, classMetric, 1);
+		CommitBatch third = new CommitBatch();
+		Assert.assertSame(classMetric, registry.classMetric(blobA, classA, third));
+		Assert.assertSame(methodMetric, registry.methodMetric(blobA, classA, methodA, third));
+		Assert.assertNotSame(classMetric, registry.classMetric(blobB, classA, third));
+
+		Assert.assertEquals(2, registry.getHits());
+		Assert.assertEquals(2, registry.getBatchHits());
+		Assert.assertEquals(4, registry.getMisses());
+		Assert.assertEquals(2, registry.size());
+	}
+
+	//A rolled back batch never runs its after persist actions, thus its metrics are not registered
+	@Test
+	public void rolledBackBatch() {
+		MetricRegistry registry = new MetricRegistry(10);
+		CommitBatch batch = new CommitBatch();
+		ClassMetric classMetric = registry.classMetric(blobA, classA, batch);
+
+		Assert.assertNotSame(classMetric, registry.classMetric(blobA, classA, new CommitBatch()));
+		Assert.assertEquals(0, registry.size());
+	}
+
+	//Only the most recently used versions are kept
+	@Test
+	public void evictEldest() throws Exception {
+		MetricRegistry registry = new MetricRegistry(1);
+		CommitBatch batch = new CommitBatch();
+		ClassMetric first = registry.classMetric(blobA, classA, batch);
+		ClassMetric second = registry.classMetric(blobB, classA, batch);
+		FieldUtils.writeField(first, "id", 1L, true);
+		persist(batch, second, 2);
+
+		Assert.assertEquals(1, registry.size());
+		Assert.assertSame(second, registry.classMetric(blobB, classA, new CommitBatch()));
+		Assert.assertNotSame(first, registry.classMetric(blobA, classA, new CommitBatch()));
+	}
+
+	private static CKMethodResult method(String name) {
+		CKMethodResult method = new CKMethodResult(name, "m", false, 0);
+		method.setMethodInvocations(Collections.emptySet());
+		method.setMethodInvocationLocal(Collections.emptySet());
+		method.setMethodInvocationsIndirectLocal(Collections.emptyMap());
+		return method;
+	}
+
+	private void persist(CommitBatch batch, ClassMetric classMetric, long id) throws Exception {
+		FieldUtils.writeField(classMetric, "id", id, true);
+		batch.getAfterPersistActions().forEach(Runnable::run);
+	}
+}
@@ -0,0 +1,122 @@
+package refactoringml;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import refactoringml.util.MirrorStore;
+import java.io.File;
+import java.io.IOException;
+
+import static refactoringml.util.FileUtils.createTmpDir;
+import static refactoringml.util.FileUtils.writeFile;
+
+//Test the MirrorStore class with local repositories as remotes
+public class MirrorStoreTest {
+	private File tmpDir;
+	private File mirrorsDir;
+
+	@Before
+	public void createStore() {
+		tmpDir = new File(createTmpDir());
+		mirrorsDir = new File(tmpDir, "mirrors");
+	}
+
+	@After
+	public void deleteStore() throws IOException {
+		FileUtils.deleteDirectory(tmpDir);
+	}
+
+	//The second clone of a repository only fetches the new commits into the mirror, both clones share its objects
+	@Test
+	public void fetchIntoMirror() throws Exception {
+		File remoteDir = new File(tmpDir, "remote");
+		String url = remoteDir.toURI().toString();
+		MirrorStore store = new MirrorStore(mirrorsDir, Long.MAX_VALUE);
+		try (Git remote = Git.init().setDirectory(remoteDir).call()) {
+			commit(remote, remoteDir, "A.java", "class A { }");
+
+			try (Repository clone = store.cloneFromMirror(url, new File(tmpDir, "clone1"), true)) {
+				Assert.assertTrue(clone.isBare());
+				Assert.assertNotNull(clone.resolve(Constants.HEAD));
+			}
+			store.release(url);
+
+			RevCommit second = commit(remote, remoteDir, "B.java", "class B { }");
+			try (Repository clone = store.cloneFromMirror(url, new File(tmpDir, "clone2"), false)) {
+				Assert.assertEquals(second, clone.parseCommit(clone.resolve(Constants.HEAD)));
+				Assert.assertTrue(new File(tmpDir, "clone2/B.java").exists());
+				// the clone has no objects of its own
+				Assert.assertFalse(new File(tmpDir, "clone2/.git/objects/pack").list().length > 0);
+			}
+			store.release(url);
+		}
+		Assert.assertEquals("Mirror store " + mirrorsDir + ": 1 mirrors cloned, 1 fetched, 0 evicted", store.statistics());
+	}
+
+	//Above the quota, the least recently used mirror is evicted, but never a mirror in use
+	@Test
+	public void evictLeastRecentlyUsed() throws Exception {
+		String first = createRemote("first");
+		String second = createRemote("second");
+		String third = createRemote("third");
+		MirrorStore store = new MirrorStore(mirrorsDir, 1);
+
+		store.cloneFromMirror(first, new File(tmpDir, "clone1"), true).close();
+		// the only mirror is in use
+		Assert.assertEquals(1, mirrorsDir.list().length);
+
+		store.cloneFromMirror(second, new File(tmpDir, "clone2"), true).close();
+		store.release(second);
+		Thread.sleep(1000);
+		store.release(first);
+		store.cloneFromMirror(third, new File(tmpDir, "clone3"), true).close();
+
+		// the second mirror was used before the first one, both are no longer in use
+		Assert.assertEquals(1, mirrorsDir.list().length);
+		Assert.assertTrue(mirrorsDir.list()[0].startsWith("third-"));
+		Assert.assertTrue(store.statistics().endsWith("3 mirrors cloned, 0 fetched, 2 evicted"));
+	}
+
+	//A failed first clone leaves no mirror behind, the next use clones the repository again instead of fetching into it
+	@Test
+	public void failedClone() throws Exception {
+		File remoteDir = new File(tmpDir, "remote");
+		String url = remoteDir.toURI().toString();
+		MirrorStore store = new MirrorStore(mirrorsDir, Long.MAX_VALUE);
+
+		try {
+			store.cloneFromMirror(url, new File(tmpDir, "clone1"), true);
+			Assert.fail("The remote does not exist yet.");
+		} catch (Exception e) {
+			// expected, the mirror was released already
+		}
+		Assert.assertEquals(0, mirrorsDir.list().length);
+
+		createRemote("remote");
+		try (Repository clone = store.cloneFromMirror(url, new File(tmpDir, "clone2"), true)) {
+			Assert.assertNotNull(clone.resolve(Constants.HEAD));
+		}
+		store.release(url);
+		Assert.assertTrue(store.statistics().endsWith("1 mirrors cloned, 0 fetched, 0 evicted"));
+	}
+
+	private String createRemote(String name) throws Exception {
+		File remoteDir = new File(tmpDir, name);
+		try (Git remote = Git.init().setDirectory(remoteDir).call()) {
+			commit(remote, remoteDir, "A.java", "class A { }");
+		}
+		return remoteDir.toURI().toString();
+	}
+
+	private RevCommit commit(Git git, File repoDir, String fileName, String content) throws Exception {
+		writeFile(new File(repoDir, fileName).getAbsolutePath(), content);
+		git.add().addFilepattern(fileName).call();
+		return git.commit().setMessage("change " + fileName).call();
+	}
+}
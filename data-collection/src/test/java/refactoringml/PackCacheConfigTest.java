@@ -0,0 +1,100 @@
+package refactoringml;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.junit.Assert;
+import org.junit.Test;
+import refactoringml.util.PackCacheConfig;
+import java.io.File;
+
+import static org.eclipse.jgit.storage.file.WindowCacheConfig.MB;
+import static refactoringml.util.FileUtils.createTmpDir;
+import static refactoringml.util.FileUtils.writeFile;
+
+//Test the sizes of the PackCacheConfig class for small and large repositories
+public class PackCacheConfigTest {
+	private static final long HEAP = 4096L * MB;
+
+	//Small repositories keep the defaults of JGit
+	@Test
+	public void smallPacks() {
+		WindowCacheConfig defaults = new WindowCacheConfig();
+		WindowCacheConfig config = PackCacheConfig.forPacks(MB, 1, HEAP, 25, 3).getConfig();
+
+		Assert.assertFalse(config.isPackedGitMMAP());
+		Assert.assertEquals(defaults.getPackedGitLimit(), config.getPackedGitLimit());
+		Assert.assertEquals(defaults.getPackedGitWindowSize(), config.getPackedGitWindowSize());
+		Assert.assertEquals(defaults.getDeltaBaseCacheLimit(), config.getDeltaBaseCacheLimit());
+		Assert.assertEquals(defaults.getPackedGitOpenFiles(), config.getPackedGitOpenFiles());
+	}
+
+	//Packs, that fit into the share of the heap, are cached completely
+	@Test
+	public void packsInHeap() {
+		WindowCacheConfig config = PackCacheConfig.forPacks(800L * MB, 2, HEAP, 25, 3).getConfig();
+
+		Assert.assertFalse(config.isPackedGitMMAP());
+		Assert.assertEquals(800L * MB, config.getPackedGitLimit());
+		Assert.assertEquals(12.5 * MB, config.getDeltaBaseCacheLimit(), 0);
+	}
+
+	//Larger packs are memory mapped, the delta base caches of all readers stay within half of the heap share
+	@Test
+	public void mappedPacks() {
+		WindowCacheConfig config = PackCacheConfig.forPacks(10240L * MB, 300, HEAP, 25, 4).getConfig();
+
+		Assert.assertTrue(config.isPackedGitMMAP());
+		Assert.assertEquals(10240L * MB, config.getPackedGitLimit());
+		Assert.assertEquals(MB, config.getPackedGitWindowSize());
+		Assert.assertEquals(128 * MB, config.getDeltaBaseCacheLimit());
+		Assert.assertEquals(332, config.getPackedGitOpenFiles());
+	}
+
+	//The caches of the JVM are sized for the largest repository in use, with room for the pack files of all of them
+	@Test
+	public void largestRepositoryInUse() {
+		PackCacheConfig small = PackCacheConfig.forPacks(100L * MB, 100, HEAP, 25, 3);
+		PackCacheConfig large = PackCacheConfig.forPacks(800L * MB, 200, HEAP, 25, 3);
+
+		small.install();
+		Assert.assertEquals(100L * MB, PackCacheConfig.getInstalled().getPackedGitLimit());
+		large.install();
+		Assert.assertEquals(800L * MB, PackCacheConfig.getInstalled().getPackedGitLimit());
+		Assert.assertEquals(332, PackCacheConfig.getInstalled().getPackedGitOpenFiles());
+
+		// the smaller repository does not shrink the caches of the larger one
+		small.release();
+		Assert.assertEquals(800L * MB, PackCacheConfig.getInstalled().getPackedGitLimit());
+		small.install();
+		large.release();
+		Assert.assertEquals(100L * MB, PackCacheConfig.getInstalled().getPackedGitLimit());
+		Assert.assertEquals(132, PackCacheConfig.getInstalled().getPackedGitOpenFiles());
+		small.release();
+	}
+
+	//The packs of a clone and of its alternates are counted
+	@Test
+	public void packsOfAlternates() throws Exception {
+		File tmpDir = new File(createTmpDir());
+		try (Git source = Git.init().setDirectory(new File(tmpDir, "source")).call()) {
+			writeFile(new File(tmpDir, "source/A.java").getAbsolutePath(), "class A { }");
+			source.add().addFilepattern("A.java").call();
+			source.commit().setMessage("add A").call();
+			source.gc().call();
+
+			File packDir = new File(source.getRepository().getDirectory(), "objects/pack");
+			long packBytes = FileUtils.listFiles(packDir, new String[] {"pack"}, false).stream().mapToLong(File::length).sum();
+			Assert.assertEquals(packBytes, PackCacheConfig.forRepository(source.getRepository(), HEAP, 25, 1).getPackBytes());
+
+			try (Git clone = Git.init().setBare(true).setDirectory(new File(tmpDir, "clone")).call()) {
+				Assert.assertEquals(0, PackCacheConfig.forRepository(clone.getRepository(), HEAP, 25, 1).getPackBytes());
+				writeFile(new File(clone.getRepository().getDirectory(), "objects/info/alternates").getAbsolutePath(),
+						new File(source.getRepository().getDirectory(), "objects").getAbsolutePath() + "\n");
+				Assert.assertEquals(packBytes, PackCacheConfig.forRepository(clone.getRepository(), HEAP, 25, 1).getPackBytes());
+			}
+		} finally {
+			FileUtils.deleteDirectory(tmpDir);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package refactoringml;
+
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Test the ProjectScheduler class
+public class ProjectSchedulerTest {
+	//Never more projects run at the same time than there are slots
+	@Test
+	public void limitsProjects() throws InterruptedException {
+		ProjectScheduler scheduler = new ProjectScheduler(2, 0);
+		AtomicInteger running = new AtomicInteger(0);
+		AtomicInteger maxRunning = new AtomicInteger(0);
+
+		for (int i = 0; i < 6; i++) {
+			scheduler.reserve();
+			scheduler.run(() -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+			});
+		}
+		scheduler.close();
+
+		Assert.assertEquals(2, maxRunning.get());
+		Assert.assertEquals(0, scheduler.getRunningProjects());
+	}
+
+	//The slots never exceed the heap budget, but a single project can always run
+	@Test
+	public void heapBudget() throws InterruptedException {
+		long maxHeap = Runtime.getRuntime().maxMemory();
+		Assert.assertEquals(1, new ProjectScheduler(4, maxHeap).getSlots());
+		Assert.assertEquals(1, new ProjectScheduler(4, maxHeap * 2).getSlots());
+		Assert.assertEquals(2, new ProjectScheduler(4, maxHeap / 2).getSlots());
+
+		// a project needing more than the whole heap still starts, if nothing else runs
+		ProjectScheduler scheduler = new ProjectScheduler(1, maxHeap * 2);
+		CountDownLatch finished = new CountDownLatch(1);
+		scheduler.reserve();
+		scheduler.run(finished::countDown);
+		Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+		scheduler.close();
+	}
+
+	//A reserved slot, that is given back, can be used by the next project
+	@Test
+	public void release() throws InterruptedException {
+		ProjectScheduler scheduler = new ProjectScheduler(1, 0);
+		scheduler.reserve();
+		scheduler.release();
+		scheduler.reserve();
+		Assert.assertEquals(1, scheduler.getRunningProjects());
+		scheduler.release();
+		scheduler.close();
+	}
+}
@@ -0,0 +1,40 @@
+package refactoringml;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.junit.Assert;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.List;
+
+//Test the Shard class
+public class ShardTest {
+	private final List<String> commits = Arrays.asList("a", "b", "c", "d", "e", "f", "g");
+
+	//The shards cover all commits exactly once
+	@Test
+	public void selectRange() {
+		Assert.assertEquals(new ImmutablePair<>("a", "c"), new Shard(0, 3, null).selectRange(commits));
+		Assert.assertEquals(new ImmutablePair<>("d", "f"), new Shard(1, 3, null).selectRange(commits));
+		Assert.assertEquals(new ImmutablePair<>("g", "g"), new Shard(2, 3, null).selectRange(commits));
+		Assert.assertEquals(new ImmutablePair<>("a", "g"), new Shard(0, 1, null).selectRange(commits));
+	}
+
+	//A shard without commits has nothing to mine
+	@Test
+	public void moreShardsThanCommits() {
+		List<String> fewCommits = Arrays.asList("a", "b");
+		Assert.assertEquals(new ImmutablePair<>("b", "b"), new Shard(1, 4, null).selectRange(fewCommits));
+		Assert.assertNull(new Shard(2, 4, null).selectRange(fewCommits));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidShard() {
+		new Shard(3, 3, null);
+	}
+
+	@Test
+	public void emptyHeadCommit() {
+		Assert.assertNull(new Shard(0, 2, " ").getHeadCommit());
+		Assert.assertEquals("abc", new Shard(0, 2, "abc").getHeadCommit());
+	}
+}
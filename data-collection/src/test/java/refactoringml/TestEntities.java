@@ -0,0 +1,40 @@
+package refactoringml;
+
+import com.github.mauricioaniche.ck.CKClassResult;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import refactoringml.db.ClassMetric;
+import refactoringml.db.CommitMetaData;
+import refactoringml.db.Project;
+import refactoringml.util.CKUtils;
+import refactoringml.util.Counter;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+
+//Entities for the tests of the persistence, built with the same constructors as the mining does
+class TestEntities {
+	private TestEntities() {}
+
+	//A project, that was persisted with the id
+	static Project project(long id) throws IllegalAccessException {
+		Project project = new Project("test", "https://github.com/test/project", "project", Calendar.getInstance(), 0, "15",
+				"a", new Counter.CounterResult(0, 0, 0, 0), 0);
+		FieldUtils.writeField(project, "id", id, true);
+		return project;
+	}
+
+	//The meta data of a root commit with the message, commits with different messages have different ids
+	static CommitMetaData commitMetaData(Project project, String message) {
+		String raw = "tree " + ObjectId.zeroId().name() + "\n" +
+				"author Test <test@test.com> 1577836800 +0000\n" +
+				"committer Test <test@test.com> 1577836800 +0000\n\n" +
+				message + "\n";
+		return new CommitMetaData(RevCommit.parse(raw.getBytes(StandardCharsets.UTF_8)), project);
+	}
+
+	//The metrics of a class without any code
+	static ClassMetric classMetric() {
+		return CKUtils.extractClassMetrics(new CKClassResult("A.java", "A", "class", 0));
+	}
+}
@@ -0,0 +1,78 @@
+package refactoringml;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.Assert;
+import org.junit.Test;
+import refactoringml.db.Database;
+import refactoringml.db.UnitOfWork;
+
+import static org.mockito.Mockito.*;
+
+//Test the UnitOfWork class with a mocked session factory
+public class UnitOfWorkTest {
+	//Every unit of work has its own session and transaction
+	@Test
+	public void independentSessions() {
+		SessionFactory sf = mock(SessionFactory.class);
+		Session first = mockSession();
+		Session second = mockSession();
+		when(sf.openSession()).thenReturn(first, second);
+		Database db = new Database(sf);
+
+		try (UnitOfWork firstWork = db.beginWork(); UnitOfWork secondWork = db.beginWork()) {
+			firstWork.persist("first");
+			secondWork.persist("second");
+			firstWork.commit();
+			secondWork.rollback("");
+		}
+
+		verify(first).persist("first");
+		verify(second).persist("second");
+		verify(first.getTransaction()).commit();
+		verify(first.getTransaction(), never()).rollback();
+		verify(second.getTransaction()).rollback();
+		verify(second.getTransaction(), never()).commit();
+		verify(first).close();
+		verify(second).close();
+	}
+
+	//A unit of work, that is closed without a commit, is rolled back
+	@Test
+	public void rollbackOnClose() {
+		SessionFactory sf = mock(SessionFactory.class);
+		Session session = mockSession();
+		when(sf.openSession()).thenReturn(session);
+
+		new Database(sf).beginWork().close();
+
+		verify(session.getTransaction()).rollback();
+		verify(session).close();
+	}
+
+	//Persisting a complete object commits it in its own unit of work
+	@Test
+	public void persistComplete() {
+		SessionFactory sf = mock(SessionFactory.class);
+		Session session = mockSession();
+		when(sf.openSession()).thenReturn(session);
+
+		new Database(sf).persistComplete("entity");
+
+		verify(session).persist("entity");
+		verify(session.getTransaction()).commit();
+		verify(session.getTransaction(), never()).rollback();
+		verify(session).close();
+	}
+
+	private Session mockSession() {
+		Session session = mock(Session.class);
+		Transaction transaction = mock(Transaction.class);
+		when(session.getTransaction()).thenReturn(transaction);
+		when(session.isOpen()).thenReturn(true);
+		when(session.isConnected()).thenReturn(true);
+		when(transaction.isActive()).thenReturn(true);
+		return session;
+	}
+}